@@ -1,6 +1,9 @@
 package analyzer;
 
 import analyzer.formulaproviders.TotalProvider;
+import analyzer.formulaproviders.arith.FormulaInterner;
+import analyzer.formulaproviders.arith.FormulaSimplifier;
+import analyzer.formulaproviders.arith.SymbolicConstant;
 import core.codemodel.Indexer;
 import core.codemodel.SourcePos;
 import core.codemodel.elements.*;
@@ -292,22 +295,69 @@ public class ProgramAnalyzer {
     }
 
     public SerialFormulas serializeFormulas() {
-        Set<ComputedEvent> keys = new HashSet<>(getAllAssertions());
         TotalProvider concreteProvider = new TotalProvider(this);
-        //close keys over dependencies according to the formula provider
-        while (true) {
-            Set<ComputedEvent> keyDeps = keys.stream()
-                    .flatMap(event -> concreteProvider.genericFormulaProvider().get(event).getDeps().stream())
+        //simplify every formula before anything else looks at it, so dependencies that simplify away are never
+        //followed, and the events only they led to are never serialized (or turned into rows at runtime)
+        final Map<ComputedEvent, Formula<? extends Dependency>> simplified = new HashMap<>();
+        //close keys over dependencies according to the simplified formulas
+        Deque<ComputedEvent> frontier = new ArrayDeque<>(getAllAssertions());
+        while (!frontier.isEmpty()) {
+            ComputedEvent event = frontier.pop();
+            if (simplified.containsKey(event)) {
+                continue;
+            }
+            Formula<? extends Dependency> formula =
+                    FormulaSimplifier.simplify(concreteProvider.genericFormulaProvider().get(event));
+            simplified.put(event, formula);
+            formula.getDeps().stream()
                     //restrict to computed event dependencies - e.g. ignore Pi deps
                     .flatMap(dep -> ComputedEvent.ofDependencyOpt(dep).stream())
-                    .collect(Collectors.toUnmodifiableSet());
-            if (keys.containsAll(keyDeps)) {
-                break;
+                    .forEach(frontier::push);
+        }
+
+        //substitute events whose formulas are constant into the formulas reading them, and simplify those again,
+        //until no formula changes - a disabled alpha then drops out of every omega, and an omega folded to zero out
+        //of its assertion
+        final Map<ComputedEvent, Float> constants = new HashMap<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            simplified.forEach((event, formula) -> {
+                if (formula instanceof SymbolicConstant<?> constant) {
+                    constants.put(event, constant.val());
+                }
+            });
+            for (Map.Entry<ComputedEvent, Formula<? extends Dependency>> entry : simplified.entrySet()) {
+                Formula<? extends Dependency> substituted = FormulaSimplifier.substitute(entry.getValue(), constants);
+                if (substituted != entry.getValue()) {
+                    entry.setValue(FormulaSimplifier.simplify(substituted));
+                    changed = true;
+                }
             }
-            keys.addAll(keyDeps);
         }
+
+        //keep what the assertions still reach. Omegas are kept unless zero whether reached or not - passes are routed
+        //to lines by them, and an omega missing from the formulas is taken to be structurally zero
+        final Set<ComputedEvent> reached = new HashSet<>();
+        frontier.addAll(getAllAssertions());
+        simplified.forEach((event, formula) -> {
+            if (event instanceof Omega && !(formula instanceof SymbolicConstant<?> c && c.val() == 0.0f)) {
+                frontier.push(event);
+            }
+        });
+        while (!frontier.isEmpty()) {
+            ComputedEvent event = frontier.pop();
+            if (reached.add(event)) {
+                simplified.get(event).getDeps().stream()
+                        .flatMap(dep -> ComputedEvent.ofDependencyOpt(dep).stream())
+                        .forEach(frontier::push);
+            }
+        }
+
+        //intern so subterms shared between formulas are stored (and later deserialized) once
+        final FormulaInterner interner = new FormulaInterner();
         final HashMap<Event, Formula<? extends Dependency>> data = new HashMap<>();
-        keys.forEach(event -> data.put(event, concreteProvider.genericFormulaProvider().get(ComputedEvent.ofEvent(event))));
+        reached.forEach(event -> data.put(event, interner.intern(simplified.get(event))));
         return new SerialFormulas(data);
     }
 
@@ -2,11 +2,11 @@ package analyzer.formulaproviders;
 
 import analyzer.Config;
 import core.codemodel.events.Assertion;
+import core.formula.FloatResolver;
 import core.formula.Formula;
 import core.formula.FormulaProvider;
 
 import java.util.Set;
-import java.util.function.Function;
 
 /*
 This one is a little confusing: a FrequencyProvider takens an assertion, queries that assertion
@@ -22,8 +22,8 @@ public record FrequencyProvider() implements FormulaProvider<Assertion, Assertio
             }
 
             @Override
-            public float compute(Function<Assertion, Float> resolveDependencies) {
-                float probCorrect = resolveDependencies.apply(assertion);
+            public float evaluate(FloatResolver<Assertion> resolveDependencies) {
+                float probCorrect = resolveDependencies.resolve(assertion);
                 return (Config.DESIRED_CORRECTNESS - probCorrect) / (1 - probCorrect);
             }
         };
@@ -0,0 +1,78 @@
+package analyzer.formulaproviders.arith;
+
+/*
+Bulk kernels over contiguous runs of float row values - the products behind wide conjunctions and disjunctions: the
+factors of an IncrementalProduct (the all-lines conjunction of every assertion) when it is refreshed, and junctions too
+wide for FormulaProgram's stack loop that can't be maintained incrementally.
+
+VectorKernels, a lane-wide SIMD version of the kernels, is only compiled by the pom's `vector` profile, since the
+jdk.incubator.vector module it needs makes javac warn on every build. When it was compiled and the JVM runs with
+--add-modules jdk.incubator.vector, runs of at least VECTOR_MIN_LENGTH values go through it; otherwise, or for short
+runs where setting up vectors costs more than it saves, they take a plain scalar loop. VectorKernels is looked up by
+name, so neither a build without it nor a JVM without the module fails - they just go without SIMD.
+Vector products multiply in a different order than the scalar loop, so results agree up to float rounding
+ */
+public final class FloatKernels {
+    //shorter runs - every formula but a few huge ones - aren't worth the vector setup
+    static final int VECTOR_MIN_LENGTH = 32;
+
+    //the SIMD kernels, or null if they weren't compiled or the module isn't loaded
+    private static final Kernels VECTOR = loadVectorKernels();
+
+    public static final boolean VECTORIZED = VECTOR != null;
+
+    //the kernels VectorKernels implements
+    interface Kernels {
+        float product(float[] vals, int from, int to);
+
+        float complementProduct(float[] vals, int from, int to);
+    }
+
+    private FloatKernels() {}
+
+    private static Kernels loadVectorKernels() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (Kernels) Class.forName(FloatKernels.class.getPackageName() + ".VectorKernels")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    //the product of vals[from, to)
+    public static float product(float[] vals, int from, int to) {
+        if (VECTORIZED && to - from >= VECTOR_MIN_LENGTH) {
+            return VECTOR.product(vals, from, to);
+        }
+        return scalarProduct(vals, from, to);
+    }
+
+    //the product of the complements of vals[from, to) - one minus a disjunction over them
+    public static float complementProduct(float[] vals, int from, int to) {
+        if (VECTORIZED && to - from >= VECTOR_MIN_LENGTH) {
+            return VECTOR.complementProduct(vals, from, to);
+        }
+        return scalarComplementProduct(vals, from, to);
+    }
+
+    //the scalar loops, always without SIMD - public so benchmarks can compare the two
+
+    public static float scalarProduct(float[] vals, int from, int to) {
+        float acc = 1.0f;
+        for (int i = from; i < to; i++) {
+            acc = acc * vals[i];
+        }
+        return acc;
+    }
+
+    public static float scalarComplementProduct(float[] vals, int from, int to) {
+        float acc = 1.0f;
+        for (int i = from; i < to; i++) {
+            acc = acc * (1.0f - vals[i]);
+        }
+        return acc;
+    }
+}
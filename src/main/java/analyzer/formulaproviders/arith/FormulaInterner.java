@@ -0,0 +1,91 @@
+package analyzer.formulaproviders.arith;
+
+import core.dependencies.Dependency;
+import core.formula.Formula;
+
+import java.util.*;
+
+/*
+Hash-conses formulas into a shared DAG: structurally equal Symbolic* subterms across all formulas passed to one
+interner come back as the same instance. Java serialization writes a shared instance once and back-references it
+after that, so interning before serialization shrinks both the formulas file and the heap it deserializes into, and
+lets FormulaProgram recognize a subterm repeated within one formula and evaluate it once.
+
+Children are interned before their parents, so a node is keyed by its kind, its own payload (dep or constant), and the
+identities of its already-canonical children - no key comparison ever has to walk a subtree
+ */
+public class FormulaInterner {
+    private record Key(Class<?> kind, Object payload, List<Integer> children) {}
+
+    private final Map<Key, Formula<?>> canonical = new HashMap<>();
+    private final Map<Formula<?>, Integer> ids = new IdentityHashMap<>();
+    private int numInterned = 0;
+
+    @SuppressWarnings("unchecked")
+    public <Dep extends Dependency> Formula<Dep> intern(Formula<Dep> formula) {
+        if (ids.containsKey(formula)) {
+            return formula;
+        }
+        numInterned++;
+        Formula<Dep> rebuilt;
+        Key key;
+        switch (formula) {
+            case SymbolicParam<Dep> param -> {
+                rebuilt = param;
+                key = new Key(SymbolicParam.class, param.dep(), List.of());
+            }
+            case SymbolicConstant<Dep> constant -> {
+                rebuilt = constant;
+                key = new Key(SymbolicConstant.class, constant.val(), List.of());
+            }
+            case SymbolicNot<Dep> not -> {
+                Formula<Dep> operand = intern(not.operand());
+                rebuilt = operand == not.operand() ? not : new SymbolicNot<>(operand);
+                key = new Key(SymbolicNot.class, null, List.of(ids.get(operand)));
+            }
+            case SymbolicConj<Dep> conj -> {
+                List<Formula<Dep>> conjuncts = internAll(conj.conjuncts());
+                rebuilt = new SymbolicConj<>(conjuncts);
+                key = new Key(SymbolicConj.class, null, idsOf(conjuncts));
+            }
+            case SymbolicDisj<Dep> disj -> {
+                List<Formula<Dep>> disjuncts = internAll(disj.disjuncts());
+                rebuilt = new SymbolicDisj<>(disjuncts);
+                key = new Key(SymbolicDisj.class, null, idsOf(disjuncts));
+            }
+            case SymbolicAverage<Dep> avg -> {
+                List<Formula<Dep>> operands = internAll(avg.operands());
+                rebuilt = new SymbolicAverage<>(operands);
+                key = new Key(SymbolicAverage.class, null, idsOf(operands));
+            }
+            default -> {
+                //a formula this interner doesn't understand is kept as is, and never shared
+                ids.put(formula, ids.size());
+                return formula;
+            }
+        }
+        Formula<Dep> result = (Formula<Dep>) canonical.computeIfAbsent(key, ignored -> {
+            ids.put(rebuilt, ids.size());
+            return rebuilt;
+        });
+        return result;
+    }
+
+    private <Dep extends Dependency> List<Formula<Dep>> internAll(List<Formula<Dep>> formulas) {
+        return formulas.stream().map(this::intern).toList();
+    }
+
+    private List<Integer> idsOf(List<? extends Formula<?>> formulas) {
+        return formulas.stream().map(ids::get).toList();
+    }
+
+    //distinct nodes in the shared DAG
+    public int numCanonical() {
+        return canonical.size();
+    }
+
+    //nodes interned, counting every duplicate - the size the formulas would have had as independent trees
+    public int numInterned() {
+        return numInterned;
+    }
+}
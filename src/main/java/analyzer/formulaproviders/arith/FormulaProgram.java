@@ -0,0 +1,340 @@
+package analyzer.formulaproviders.arith;
+
+import core.dependencies.Dependency;
+import core.formula.FloatResolver;
+import core.formula.Formula;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+
+/*
+A formula tree lowered into a flat postfix program, so it can be evaluated by one primitive loop instead of nested
+streams over boxed floats. Each distinct dependency of the formula gets a slot; callers fill a float[] of slot values
+(in the order of slotDeps()) and evaluate against it, reusing the same arrays every time, so evaluation never allocates.
+
+Only the Symbolic* formulas are understood - compile returns empty for anything else, and callers keep evaluating
+that formula as a tree. The tree remains the reference semantics, though not bit for bit: conjunctions and
+disjunctions fold their operands through FloatKernels, whose SIMD products multiply lane by lane rather than left to
+right, so a program and its tree agree up to float reassociation error
+ */
+public final class FormulaProgram<Dep extends Dependency> implements Formula<Dep> {
+    private static final byte LOAD = 0;
+    private static final byte CONST = 1;
+    private static final byte NOT = 2;
+    private static final byte CONJ = 3;
+    private static final byte DISJ = 4;
+    private static final byte AVG = 5;
+    //copy the top of the stack into a temp, leaving it in place / push a temp - for subterms shared within a formula
+    private static final byte TEE = 6;
+    private static final byte LOAD_TEMP = 7;
+
+    private final byte[] ops;
+    //slot index for LOAD, constant index for CONST, arity for CONJ/DISJ/AVG
+    private final int[] args;
+    private final float[] constants;
+    private final List<Dep> slotDeps;
+    //temps live in the scratch array right above the deepest the operand stack gets
+    private final int tempBase;
+    private final int numTemps;
+
+    private FormulaProgram(byte[] ops, int[] args, float[] constants, List<Dep> slotDeps, int tempBase, int numTemps) {
+        this.ops = ops;
+        this.args = args;
+        this.constants = constants;
+        this.slotDeps = slotDeps;
+        this.tempBase = tempBase;
+        this.numTemps = numTemps;
+    }
+
+    public static <Dep extends Dependency> Optional<FormulaProgram<Dep>> compile(Formula<Dep> formula) {
+        if (formula instanceof FormulaProgram<Dep> program) {
+            return Optional.of(program);
+        }
+        Compiler<Dep> compiler = new Compiler<>();
+        compiler.countOccurrences(formula);
+        if (!compiler.emit(formula)) {
+            return Optional.empty();
+        }
+        return Optional.of(compiler.finish());
+    }
+
+    private static class Compiler<Dep extends Dependency> {
+        private byte[] ops = new byte[16];
+        private int[] args = new int[16];
+        private int length = 0;
+        private final List<Float> constants = new ArrayList<>();
+        private final Map<Dep, Integer> slots = new LinkedHashMap<>();
+        private int depth = 0;
+        private int maxDepth = 0;
+        //how often each compound subterm instance occurs in the formula - interned formulas (see FormulaInterner)
+        //share instances, and a shared subterm is computed once into a temp and reloaded after that
+        private final Map<Formula<Dep>, Integer> occurrences = new IdentityHashMap<>();
+        private final Map<Formula<Dep>, Integer> temps = new IdentityHashMap<>();
+
+        private void countOccurrences(Formula<Dep> formula) {
+            if (occurrences.merge(formula, 1, Integer::sum) > 1) {
+                return;
+            }
+            switch (formula) {
+                case SymbolicNot<Dep> not -> countOccurrences(not.operand());
+                case SymbolicConj<Dep> conj -> conj.conjuncts().forEach(this::countOccurrences);
+                case SymbolicDisj<Dep> disj -> disj.disjuncts().forEach(this::countOccurrences);
+                case SymbolicAverage<Dep> avg -> avg.operands().forEach(this::countOccurrences);
+                default -> {}
+            }
+        }
+
+        private void append(byte op, int arg, int stackEffect) {
+            if (length == ops.length) {
+                ops = Arrays.copyOf(ops, length * 2);
+                args = Arrays.copyOf(args, length * 2);
+            }
+            ops[length] = op;
+            args[length] = arg;
+            length++;
+            depth += stackEffect;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private boolean emitAll(List<Formula<Dep>> operands, byte op) {
+            for (Formula<Dep> operand : operands) {
+                if (!emit(operand)) {
+                    return false;
+                }
+            }
+            append(op, operands.size(), 1 - operands.size());
+            return true;
+        }
+
+        //false if the formula contains a node this compiler doesn't understand
+        private boolean emit(Formula<Dep> formula) {
+            boolean shared = occurrences.getOrDefault(formula, 1) > 1
+                    && !(formula instanceof SymbolicParam<Dep> || formula instanceof SymbolicConstant<Dep>);
+            if (shared && temps.containsKey(formula)) {
+                append(LOAD_TEMP, temps.get(formula), 1);
+                return true;
+            }
+            if (!emitTree(formula)) {
+                return false;
+            }
+            if (shared) {
+                temps.put(formula, temps.size());
+                append(TEE, temps.get(formula), 0);
+            }
+            return true;
+        }
+
+        private boolean emitTree(Formula<Dep> formula) {
+            switch (formula) {
+                case SymbolicParam<Dep> param -> {
+                    append(LOAD, slots.computeIfAbsent(param.dep(), ignored -> slots.size()), 1);
+                    return true;
+                }
+                case SymbolicConstant<Dep> constant -> {
+                    constants.add(constant.val());
+                    append(CONST, constants.size() - 1, 1);
+                    return true;
+                }
+                case SymbolicNot<Dep> not -> {
+                    if (!emit(not.operand())) {
+                        return false;
+                    }
+                    append(NOT, 0, 0);
+                    return true;
+                }
+                case SymbolicConj<Dep> conj -> {
+                    return emitAll(conj.conjuncts(), CONJ);
+                }
+                case SymbolicDisj<Dep> disj -> {
+                    return emitAll(disj.disjuncts(), DISJ);
+                }
+                case SymbolicAverage<Dep> avg -> {
+                    //the tree throws on an empty average when computed - leave that to the tree
+                    return !avg.operands().isEmpty() && emitAll(avg.operands(), AVG);
+                }
+                default -> {
+                    return false;
+                }
+            }
+        }
+
+        private FormulaProgram<Dep> finish() {
+            float[] constantArray = new float[constants.size()];
+            for (int i = 0; i < constantArray.length; i++) {
+                constantArray[i] = constants.get(i);
+            }
+            return new FormulaProgram<>(Arrays.copyOf(ops, length), Arrays.copyOf(args, length), constantArray,
+                    List.copyOf(slots.keySet()), maxDepth, temps.size());
+        }
+    }
+
+    //the dependencies whose values fill the slots passed to evaluate, in slot order
+    public List<Dep> slotDeps() {
+        return slotDeps;
+    }
+
+    public int numSlots() {
+        return slotDeps.size();
+    }
+
+    //size of the scratch array evaluate needs - the operand stack plus the temps
+    public int scratchSize() {
+        return tempBase + numTemps;
+    }
+
+    public float evaluate(float[] slotVals, float[] stack) {
+        int sp = 0;
+        for (int pc = 0; pc < ops.length; pc++) {
+            switch (ops[pc]) {
+                case LOAD -> stack[sp++] = slotVals[args[pc]];
+                case CONST -> stack[sp++] = constants[args[pc]];
+                case NOT -> stack[sp - 1] = 1.0f - stack[sp - 1];
+                case TEE -> stack[tempBase + args[pc]] = stack[sp - 1];
+                case LOAD_TEMP -> stack[sp++] = stack[tempBase + args[pc]];
+                //a junction's operands sit contiguously on the stack, so wide ones fold as a SIMD kernel
+                case CONJ -> {
+                    int base = sp - args[pc];
+                    stack[base] = FloatKernels.product(stack, base, sp);
+                    sp = base + 1;
+                }
+                case DISJ -> {
+                    int base = sp - args[pc];
+                    stack[base] = 1.0f - FloatKernels.complementProduct(stack, base, sp);
+                    sp = base + 1;
+                }
+                case AVG -> {
+                    int base = sp - args[pc];
+                    float acc = 0.0f;
+                    for (int i = base; i < sp; i++) {
+                        acc = acc + stack[i];
+                    }
+                    stack[base] = acc / args[pc];
+                    sp = base + 1;
+                }
+                default -> throw new IllegalStateException("Unrecognized opcode: " + ops[pc]);
+            }
+        }
+        return stack[0];
+    }
+
+    private static final MethodHandle MUL, ADD, ONE_MINUS, DIV, SLOT;
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodType binary = MethodType.methodType(float.class, float.class, float.class);
+            MUL = lookup.findStatic(FormulaProgram.class, "mul", binary);
+            ADD = lookup.findStatic(FormulaProgram.class, "add", binary);
+            DIV = lookup.findStatic(FormulaProgram.class, "div", binary);
+            ONE_MINUS = lookup.findStatic(FormulaProgram.class, "oneMinus", MethodType.methodType(float.class, float.class));
+            SLOT = MethodHandles.arrayElementGetter(float[].class);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static float mul(float l, float r) {
+        return l * r;
+    }
+
+    private static float add(float l, float r) {
+        return l + r;
+    }
+
+    private static float div(float l, float r) {
+        return l / r;
+    }
+
+    private static float oneMinus(float f) {
+        return 1.0f - f;
+    }
+
+    //(float[])float handle computing op(left(slots), right(slots))
+    private static MethodHandle combine(MethodHandle op, MethodHandle left, MethodHandle right) {
+        return MethodHandles.permuteArguments(MethodHandles.filterArguments(op, 0, left, right),
+                MethodType.methodType(float.class, float[].class), 0, 0);
+    }
+
+    private static MethodHandle constant(float val) {
+        return MethodHandles.dropArguments(MethodHandles.constant(float.class, val), 0, float[].class);
+    }
+
+    /*
+    Specialize this program into a tree of method handle combinators of type (float[])float, taking the slot values.
+    Slots and constants are bound into the tree, so the JIT sees straight-line float arithmetic with no opcode dispatch
+    and no operand stack. Folds are built left to right, as the tree folds - where evaluate takes the SIMD kernels, the
+    two differ by float reassociation error, so a row's value may shift by that much when it is specialized. Building
+    the tree is far more expensive than interpreting the program, so this is for rows that have proven hot - see
+    ComputationCell
+     */
+    public MethodHandle specialize() {
+        Deque<MethodHandle> stack = new ArrayDeque<>();
+        //handles don't share results, so a shared subterm's handle is just reused - it is evaluated at each use
+        MethodHandle[] tempHandles = new MethodHandle[numTemps];
+        for (int pc = 0; pc < ops.length; pc++) {
+            switch (ops[pc]) {
+                case LOAD -> stack.push(MethodHandles.insertArguments(SLOT, 1, args[pc]));
+                case TEE -> tempHandles[args[pc]] = stack.peek();
+                case LOAD_TEMP -> stack.push(tempHandles[args[pc]]);
+                case CONST -> stack.push(constant(constants[args[pc]]));
+                case NOT -> stack.push(MethodHandles.filterReturnValue(stack.pop(), ONE_MINUS));
+                case CONJ, DISJ, AVG -> {
+                    MethodHandle[] operands = new MethodHandle[args[pc]];
+                    for (int i = operands.length - 1; i >= 0; i--) {
+                        operands[i] = stack.pop();
+                    }
+                    stack.push(switch (ops[pc]) {
+                        case CONJ -> fold(MUL, constant(1.0f), operands, false);
+                        case DISJ -> MethodHandles.filterReturnValue(fold(MUL, constant(1.0f), operands, true), ONE_MINUS);
+                        default -> combine(DIV, fold(ADD, constant(0.0f), operands, false), constant(operands.length));
+                    });
+                }
+                default -> throw new IllegalStateException("Unrecognized opcode: " + ops[pc]);
+            }
+        }
+        return stack.pop();
+    }
+
+    private static MethodHandle fold(MethodHandle op, MethodHandle identity, MethodHandle[] operands, boolean complement) {
+        MethodHandle acc = identity;
+        for (MethodHandle operand : operands) {
+            acc = combine(op, acc, complement ? MethodHandles.filterReturnValue(operand, ONE_MINUS) : operand);
+        }
+        return acc;
+    }
+
+    //evaluate through a handle returned by specialize
+    public static float evaluate(MethodHandle specialized, float[] slotVals) {
+        try {
+            return (float) specialized.invokeExact(slotVals);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Specialized formula failed", e);
+        }
+    }
+
+    public int numOps() {
+        return ops.length;
+    }
+
+    @Override
+    public Set<Dep> getDeps() {
+        return Set.copyOf(slotDeps);
+    }
+
+    //convenience path that gathers the slots through a resolver - allocates, so hot callers should fill their own
+    //slot array and use evaluate(float[], float[])
+    @Override
+    public float evaluate(FloatResolver<Dep> resolveDependencies) {
+        float[] slotVals = new float[slotDeps.size()];
+        for (int i = 0; i < slotVals.length; i++) {
+            slotVals[i] = resolveDependencies.resolve(slotDeps.get(i));
+        }
+        return evaluate(slotVals, new float[scratchSize()]);
+    }
+
+    @Override
+    public String toString() {
+        return "FormulaProgram[" + ops.length + " ops, " + slotDeps.size() + " slots]";
+    }
+}
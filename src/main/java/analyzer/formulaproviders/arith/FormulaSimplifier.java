@@ -0,0 +1,162 @@
+package analyzer.formulaproviders.arith;
+
+import core.dependencies.Dependency;
+import core.formula.Formula;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+Rewrites the trivially reducible shapes the providers emit - constant alphas and etas, single-case disjunctions,
+conjunctions of conjunctions, disjunctions containing a constant one - into smaller equivalent formulas:
+    - constants are folded, through not, conj, disj and average
+    - nested conjunctions and nested disjunctions are flattened into their parents
+    - zero disjuncts and one conjuncts are dropped, and a one disjunct or zero conjunct absorbs the whole node
+    - single-operand conj/disj/average collapse into their operand, and double negations cancel
+Any dependency that only occurred under an absorbed node disappears with it. Rewritten formulas agree with the
+originals up to float rounding - folds may be reassociated - and anything that isn't a Symbolic* formula is kept as is.
+
+simplify only sees one formula. substitute carries constants across formulas: a dependency whose own formula
+simplified to a constant - a disabled alpha, a constant eta - is replaced by that constant in the formulas that read
+it, which can then simplify further
+ */
+public class FormulaSimplifier {
+    public static <Dep extends Dependency> Formula<Dep> simplify(Formula<Dep> formula) {
+        return switch (formula) {
+            case SymbolicNot<Dep> not -> switch (simplify(not.operand())) {
+                case SymbolicConstant<Dep> constant -> new SymbolicConstant<>(1.0f - constant.val());
+                case SymbolicNot<Dep> inner -> inner.operand();
+                case Formula<Dep> operand -> new SymbolicNot<>(operand);
+            };
+            case SymbolicConj<Dep> conj -> simplifyConj(conj.conjuncts());
+            case SymbolicDisj<Dep> disj -> simplifyDisj(disj.disjuncts());
+            case SymbolicAverage<Dep> avg -> simplifyAverage(avg);
+            default -> formula;
+        };
+    }
+
+    /**
+     * Replaces every parameter whose dependency has a constant value in constants by that constant
+     * @return the formula itself if no parameter was replaced - otherwise a new formula, worth simplifying again
+     */
+    public static <Dep extends Dependency> Formula<Dep> substitute(Formula<Dep> formula, Map<?, Float> constants) {
+        return switch (formula) {
+            case SymbolicParam<Dep> param -> {
+                Float val = constants.get(param.dep());
+                yield val == null ? param : new SymbolicConstant<>(val);
+            }
+            case SymbolicNot<Dep> not -> {
+                Formula<Dep> operand = substitute(not.operand(), constants);
+                yield operand == not.operand() ? not : new SymbolicNot<>(operand);
+            }
+            case SymbolicConj<Dep> conj -> {
+                List<Formula<Dep>> operands = substituteAll(conj.conjuncts(), constants);
+                yield operands == conj.conjuncts() ? conj : new SymbolicConj<>(operands);
+            }
+            case SymbolicDisj<Dep> disj -> {
+                List<Formula<Dep>> operands = substituteAll(disj.disjuncts(), constants);
+                yield operands == disj.disjuncts() ? disj : new SymbolicDisj<>(operands);
+            }
+            case SymbolicAverage<Dep> avg -> {
+                List<Formula<Dep>> operands = substituteAll(avg.operands(), constants);
+                yield operands == avg.operands() ? avg : new SymbolicAverage<>(operands);
+            }
+            default -> formula;
+        };
+    }
+
+    //the operands substituted, or the very same list if none changed
+    private static <Dep extends Dependency> List<Formula<Dep>> substituteAll(
+            List<Formula<Dep>> operands, Map<?, Float> constants) {
+        List<Formula<Dep>> substituted = null;
+        for (int i = 0; i < operands.size(); i++) {
+            Formula<Dep> operand = substitute(operands.get(i), constants);
+            if (operand != operands.get(i) && substituted == null) {
+                substituted = new ArrayList<>(operands.subList(0, i));
+            }
+            if (substituted != null) {
+                substituted.add(operand);
+            }
+        }
+        return substituted == null ? operands : substituted;
+    }
+
+    private static <Dep extends Dependency> Formula<Dep> simplifyConj(List<Formula<Dep>> conjuncts) {
+        List<Formula<Dep>> operands = new ArrayList<>();
+        float constant = 1.0f;
+        for (Formula<Dep> conjunct : flatten(conjuncts, true)) {
+            if (conjunct instanceof SymbolicConstant<Dep> c) {
+                constant *= c.val();
+            } else {
+                operands.add(conjunct);
+            }
+        }
+        if (constant == 0.0f) {
+            return SymbolicConstant.zero();
+        }
+        if (constant != 1.0f) {
+            operands.add(new SymbolicConstant<>(constant));
+        }
+        return switch (operands.size()) {
+            case 0 -> SymbolicConstant.one();
+            case 1 -> operands.get(0);
+            default -> new SymbolicConj<>(operands);
+        };
+    }
+
+    private static <Dep extends Dependency> Formula<Dep> simplifyDisj(List<Formula<Dep>> disjuncts) {
+        List<Formula<Dep>> operands = new ArrayList<>();
+        //disjunction of the constants seen so far, kept as the product of their complements
+        float complement = 1.0f;
+        for (Formula<Dep> disjunct : flatten(disjuncts, false)) {
+            if (disjunct instanceof SymbolicConstant<Dep> c) {
+                complement *= 1.0f - c.val();
+            } else {
+                operands.add(disjunct);
+            }
+        }
+        if (complement == 0.0f) {
+            return SymbolicConstant.one();
+        }
+        if (complement != 1.0f) {
+            operands.add(new SymbolicConstant<>(1.0f - complement));
+        }
+        return switch (operands.size()) {
+            case 0 -> SymbolicConstant.zero();
+            case 1 -> operands.get(0);
+            default -> new SymbolicDisj<>(operands);
+        };
+    }
+
+    private static <Dep extends Dependency> Formula<Dep> simplifyAverage(SymbolicAverage<Dep> avg) {
+        if (avg.operands().isEmpty()) {
+            //computing this throws - keep it, so it still does
+            return avg;
+        }
+        List<Formula<Dep>> operands = avg.operands().stream().map(FormulaSimplifier::simplify).toList();
+        if (operands.size() == 1) {
+            return operands.get(0);
+        }
+        if (operands.stream().allMatch(o -> o instanceof SymbolicConstant<Dep>)) {
+            return new SymbolicConstant<>(new SymbolicAverage<>(operands).evaluate(ignored -> 0.0f));
+        }
+        return new SymbolicAverage<>(operands);
+    }
+
+    //simplifies each operand and splices the operands of any nested conj (or disj) into the result
+    private static <Dep extends Dependency> List<Formula<Dep>> flatten(List<Formula<Dep>> operands, boolean conj) {
+        List<Formula<Dep>> flat = new ArrayList<>();
+        for (Formula<Dep> operand : operands) {
+            Formula<Dep> simplified = simplify(operand);
+            if (conj && simplified instanceof SymbolicConj<Dep> inner) {
+                flat.addAll(inner.conjuncts());
+            } else if (!conj && simplified instanceof SymbolicDisj<Dep> inner) {
+                flat.addAll(inner.disjuncts());
+            } else {
+                flat.add(simplified);
+            }
+        }
+        return flat;
+    }
+}
@@ -0,0 +1,238 @@
+package analyzer.formulaproviders.arith;
+
+import core.dependencies.Dependency;
+import core.formula.Formula;
+
+import java.util.*;
+
+/*
+A conjunction or disjunction over many operands, kept as a running product so that a change to one operand costs O(1)
+instead of a pass over all of them. AssertionProvider's conjunction over every line of the program is the motivating
+case: one line moving used to mean recomputing the whole product.
+
+A conjunction is the product of its operands, and a disjunction one minus the product of its operands' complements -
+either way, a product of factors. The product is kept in the log domain, as a double sum of the logs of the nonzero
+factors, with zeros counted separately: an updated operand's old log is subtracted and its new one added, and a
+product over thousands of lines never underflows, however small it gets. Results are converted back on the way out -
+to a float probability, with anything below the smallest normal float flushed to zero so no denormals reach the
+network, or to a log probability through logValue for rows that keep their values in the log domain.
+
+Subtraction drifts a little, and changes too small to be notified add up, so refreshDue asks for a recomputation from
+scratch every refreshInterval updates, or every numOperands if fewer.
+
+Each operand is compiled to its own FormulaProgram over its own dependencies, which must be disjoint from every other
+operand's - so a changed slot identifies exactly one operand to re-evaluate. Slots are laid out operand by operand.
+Results agree with the tree up to float rounding - the product is formed in a different order, and more precisely
+where it is updated, though a full evaluation multiplies its factors in float blocks
+ */
+public final class IncrementalProduct<Dep extends Dependency> {
+    private final boolean disjunction;
+    private final FormulaProgram<Dep>[] operands;
+    //first row slot of each operand - operand i owns slots [operandSlotStarts[i], operandSlotStarts[i + 1])
+    private final int[] operandSlotStarts;
+    //operand owning each slot
+    private final int[] slotOperands;
+    private final List<Dep> slotDeps;
+    private final int refreshInterval;
+
+    private final float[] factors;
+    //sum of the logs of the nonzero factors
+    private double logProduct;
+    private int numZeroFactors;
+    private int updatesSinceRefresh;
+    private boolean needsRefresh = true;
+    //scratch for evaluating one operand at a time, sized for the largest, and the operands to re-evaluate in update
+    private final float[] operandSlotVals;
+    private final float[] stack;
+    private final boolean[] operandDirty;
+    private final int[] dirtyOperands;
+
+    private IncrementalProduct(boolean disjunction, FormulaProgram<Dep>[] operands, int refreshInterval) {
+        this.disjunction = disjunction;
+        this.operands = operands;
+        this.refreshInterval = refreshInterval;
+        operandSlotStarts = new int[operands.length + 1];
+        List<Dep> deps = new ArrayList<>();
+        int maxSlots = 0, maxScratch = 0;
+        for (int i = 0; i < operands.length; i++) {
+            operandSlotStarts[i] = deps.size();
+            deps.addAll(operands[i].slotDeps());
+            maxSlots = Math.max(maxSlots, operands[i].numSlots());
+            maxScratch = Math.max(maxScratch, operands[i].scratchSize());
+        }
+        operandSlotStarts[operands.length] = deps.size();
+        slotDeps = List.copyOf(deps);
+        slotOperands = new int[deps.size()];
+        for (int i = 0; i < operands.length; i++) {
+            Arrays.fill(slotOperands, operandSlotStarts[i], operandSlotStarts[i + 1], i);
+        }
+        factors = new float[operands.length];
+        operandSlotVals = new float[maxSlots];
+        stack = new float[maxScratch];
+        operandDirty = new boolean[operands.length];
+        dirtyOperands = new int[operands.length];
+    }
+
+    /**
+     * @param minOperands conjunctions and disjunctions with fewer operands than this are cheap enough to recompute,
+     *                    and get no incremental product
+     * @return empty unless the formula is a conjunction or disjunction of at least minOperands operands that each
+     * compile and share no dependency with one another
+     */
+    @SuppressWarnings("unchecked")
+    public static <Dep extends Dependency> Optional<IncrementalProduct<Dep>> of(
+            Formula<Dep> formula, int minOperands, int refreshInterval) {
+        List<Formula<Dep>> operands;
+        boolean disjunction;
+        switch (formula) {
+            case SymbolicConj<Dep> conj -> {
+                operands = conj.conjuncts();
+                disjunction = false;
+            }
+            case SymbolicDisj<Dep> disj -> {
+                operands = disj.disjuncts();
+                disjunction = true;
+            }
+            default -> {
+                return Optional.empty();
+            }
+        }
+        if (operands.size() < minOperands) {
+            return Optional.empty();
+        }
+        FormulaProgram<Dep>[] programs = new FormulaProgram[operands.size()];
+        Set<Dep> seen = new HashSet<>();
+        for (int i = 0; i < programs.length; i++) {
+            Optional<FormulaProgram<Dep>> program = FormulaProgram.compile(operands.get(i));
+            if (program.isEmpty()) {
+                return Optional.empty();
+            }
+            for (Dep dep : program.get().slotDeps()) {
+                if (!seen.add(dep)) {
+                    return Optional.empty();
+                }
+            }
+            programs[i] = program.get();
+        }
+        return Optional.of(new IncrementalProduct<>(disjunction, programs, refreshInterval));
+    }
+
+    public List<Dep> slotDeps() {
+        return slotDeps;
+    }
+
+    public int numSlots() {
+        return slotDeps.size();
+    }
+
+    public int numOperands() {
+        return operands.length;
+    }
+
+    //the first evaluation, a refresh, or one after the product's slots were rebound - evaluates every operand
+    public float evaluateAll(float[] slotVals) {
+        for (int i = 0; i < operands.length; i++) {
+            factors[i] = evaluateFactor(i, slotVals);
+        }
+        numZeroFactors = 0;
+        logProduct = 0.0;
+        //the factors are multiplied a block at a time by FloatKernels, and only each block's product goes to the log
+        //domain - a log per block instead of per factor. A block holding a zero, or whose product is too small for a
+        //normal float, is taken factor by factor instead
+        int i = 0;
+        for (; i + FloatKernels.VECTOR_MIN_LENGTH <= factors.length; i += FloatKernels.VECTOR_MIN_LENGTH) {
+            float block = FloatKernels.product(factors, i, i + FloatKernels.VECTOR_MIN_LENGTH);
+            if (block >= Float.MIN_NORMAL) {
+                logProduct += Math.log(block);
+            } else {
+                for (int j = i; j < i + FloatKernels.VECTOR_MIN_LENGTH; j++) {
+                    include(factors[j]);
+                }
+            }
+        }
+        for (; i < factors.length; i++) {
+            include(factors[i]);
+        }
+        updatesSinceRefresh = 0;
+        needsRefresh = false;
+        return result();
+    }
+
+    //whether the next evaluation should be a full one - there hasn't been one yet, or the product has seen
+    //refreshInterval updates, or as many as it has operands. Callers should re-read every slot for it: changes too
+    //small to be notified add up too, and a full pass per numOperands updates still costs O(1) per update
+    public boolean refreshDue() {
+        return needsRefresh || updatesSinceRefresh >= Math.min(refreshInterval, operands.length);
+    }
+
+    /**
+     * Re-evaluates only the operands owning the given slots, whose values in slotVals have changed since the last
+     * evaluation - every other slot must hold what it held then
+     */
+    public float update(float[] slotVals, int[] changedSlots, int numChanged) {
+        int numDirty = 0;
+        for (int i = 0; i < numChanged; i++) {
+            int operand = slotOperands[changedSlots[i]];
+            if (!operandDirty[operand]) {
+                operandDirty[operand] = true;
+                dirtyOperands[numDirty++] = operand;
+            }
+        }
+        for (int i = 0; i < numDirty; i++) {
+            int operand = dirtyOperands[i];
+            operandDirty[operand] = false;
+            float factor = evaluateFactor(operand, slotVals);
+            exclude(factors[operand]);
+            factors[operand] = factor;
+            include(factor);
+        }
+        updatesSinceRefresh += numDirty;
+        return result();
+    }
+
+    private float evaluateFactor(int operand, float[] slotVals) {
+        int start = operandSlotStarts[operand];
+        int numSlots = operandSlotStarts[operand + 1] - start;
+        System.arraycopy(slotVals, start, operandSlotVals, 0, numSlots);
+        float val = operands[operand].evaluate(operandSlotVals, stack);
+        return disjunction ? 1.0f - val : val;
+    }
+
+    private void include(float factor) {
+        if (factor == 0.0f) {
+            numZeroFactors++;
+        } else {
+            logProduct += Math.log(factor);
+        }
+    }
+
+    private void exclude(float factor) {
+        if (factor == 0.0f) {
+            numZeroFactors--;
+        } else {
+            logProduct -= Math.log(factor);
+        }
+    }
+
+    private float result() {
+        if (disjunction) {
+            return numZeroFactors > 0 ? 1.0f : (float) -Math.expm1(logProduct);
+        }
+        float total = numZeroFactors > 0 ? 0.0f : (float) Math.exp(logProduct);
+        return total < Float.MIN_NORMAL ? 0.0f : total;
+    }
+
+    //the natural log of the value the last evaluation returned, computed without ever leaving the log domain - so
+    //it stays finite (and precise) for conjunctions far too small for a float
+    public double logValue() {
+        if (disjunction) {
+            return numZeroFactors > 0 ? 0.0 : Math.log(-Math.expm1(logProduct));
+        }
+        return numZeroFactors > 0 ? Double.NEGATIVE_INFINITY : logProduct;
+    }
+
+    @Override
+    public String toString() {
+        return (disjunction ? "incremental disj" : "incremental conj") + " of " + operands.length + " operands";
+    }
+}
@@ -1,10 +1,10 @@
 package analyzer.formulaproviders.arith;
 
 import core.dependencies.Dependency;
+import core.formula.FloatResolver;
 import core.formula.Formula;
 
 import java.util.Set;
-import java.util.function.Function;
 
 public record SymbolicConstant<Dep extends Dependency>(float val) implements Formula<Dep> {
     @Override
@@ -13,7 +13,7 @@ public record SymbolicConstant<Dep extends Dependency>(float val) implements For
     }
 
     @Override
-    public float compute(Function<Dep, Float> resolveDependencies) {
+    public float evaluate(FloatResolver<Dep> resolveDependencies) {
         return val;
     }
 
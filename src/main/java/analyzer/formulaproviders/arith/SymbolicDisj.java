@@ -1,14 +1,19 @@
 package analyzer.formulaproviders.arith;
 
 import core.dependencies.Dependency;
+import core.formula.FloatResolver;
 import core.formula.Formula;
 
 import java.util.List;
 import java.util.Set;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public record SymbolicDisj<Dep extends Dependency>(List<Formula<Dep>> disjuncts) implements Formula<Dep> {
+    public SymbolicDisj {
+        //random-access and immutable, so evaluate can index it without an iterator
+        disjuncts = List.copyOf(disjuncts);
+    }
+
     @Override
     public Set<Dep> getDeps() {
         return disjuncts.stream().flatMap(c -> c.getDeps().stream())
@@ -16,9 +21,11 @@ public record SymbolicDisj<Dep extends Dependency>(List<Formula<Dep>> disjuncts)
     }
 
     @Override
-    public float compute(Function<Dep, Float> resolveDependencies) {
-        return 1.0f - disjuncts.stream()
-                .map(c -> 1.0f - c.compute(resolveDependencies))
-                .reduce(1.0f, (f1, f2) -> f1 * f2);
+    public float evaluate(FloatResolver<Dep> resolveDependencies) {
+        float acc = 1.0f;
+        for (int i = 0; i < disjuncts.size(); i++) {
+            acc = acc * (1.0f - disjuncts.get(i).evaluate(resolveDependencies));
+        }
+        return 1.0f - acc;
     }
 }
@@ -1,10 +1,10 @@
 package analyzer.formulaproviders.arith;
 
 import core.dependencies.Dependency;
+import core.formula.FloatResolver;
 import core.formula.Formula;
 
 import java.util.Set;
-import java.util.function.Function;
 
 public record SymbolicNot<Dep extends Dependency>(Formula<Dep> operand) implements Formula<Dep> {
     @Override
@@ -13,8 +13,8 @@ public record SymbolicNot<Dep extends Dependency>(Formula<Dep> operand) implemen
     }
 
     @Override
-    public float compute(Function<Dep, Float> resolveDependencies) {
-        return 1.0f - operand.compute(resolveDependencies);
+    public float evaluate(FloatResolver<Dep> resolveDependencies) {
+        return 1.0f - operand.evaluate(resolveDependencies);
     }
 
     public static <D extends Dependency> Formula<D> symbolicSign(Formula<D> operand, boolean sign) {
@@ -1,10 +1,10 @@
 package analyzer.formulaproviders.arith;
 
 import core.dependencies.Dependency;
+import core.formula.FloatResolver;
 import core.formula.Formula;
 
 import java.util.Set;
-import java.util.function.Function;
 
 public record SymbolicParam<Dep extends Dependency>(Dep dep) implements Formula<Dep> {
     @Override
@@ -13,7 +13,7 @@ public record SymbolicParam<Dep extends Dependency>(Dep dep) implements Formula<
     }
 
     @Override
-    public float compute(Function<Dep, Float> resolveDependencies) {
-        return resolveDependencies.apply(dep);
+    public float evaluate(FloatResolver<Dep> resolveDependencies) {
+        return resolveDependencies.resolve(dep);
     }
 }
@@ -0,0 +1,36 @@
+package analyzer.formulaproviders.arith;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+The SIMD half of FloatKernels, which loads it by name once the jdk.incubator.vector module is known to be present -
+nothing else may refer to this class, as only the pom's `vector` profile compiles it. Each kernel folds whole vectors
+lane-wise into an accumulator, reduces the lanes once at the end, and finishes the remainder that doesn't fill a
+vector with the scalar loop
+ */
+final class VectorKernels implements FloatKernels.Kernels {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public float product(float[] vals, int from, int to) {
+        FloatVector acc = FloatVector.broadcast(SPECIES, 1.0f);
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            acc = acc.mul(FloatVector.fromArray(SPECIES, vals, i));
+        }
+        return acc.reduceLanes(VectorOperators.MUL) * FloatKernels.scalarProduct(vals, i, to);
+    }
+
+    @Override
+    public float complementProduct(float[] vals, int from, int to) {
+        FloatVector one = FloatVector.broadcast(SPECIES, 1.0f);
+        FloatVector acc = one;
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            acc = acc.mul(one.sub(FloatVector.fromArray(SPECIES, vals, i)));
+        }
+        return acc.reduceLanes(VectorOperators.MUL) * FloatKernels.scalarComplementProduct(vals, i, to);
+    }
+}
@@ -5,7 +5,6 @@ import core.dependencies.Dependency;
 
 import java.util.HashSet;
 import java.util.Set;
-import java.util.function.Function;
 
 public record ConstantFormulaProvider<Dep extends Dependency, Result extends Event>(
         float constantVal) implements FormulaProvider<Dep, Result> {
@@ -18,7 +17,7 @@ public record ConstantFormulaProvider<Dep extends Dependency, Result extends Eve
             }
 
             @Override
-            public float compute(Function<Dep, Float> ignoredResolveDependencies) {
+            public float evaluate(FloatResolver<Dep> ignoredResolveDependencies) {
                 return constantVal;
             }
         };
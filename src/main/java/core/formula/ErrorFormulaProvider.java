@@ -4,7 +4,6 @@ import core.codemodel.events.Event;
 import core.dependencies.Dependency;
 
 import java.util.Set;
-import java.util.function.Function;
 
 public record ErrorFormulaProvider<Dep extends Dependency, Result extends Event>(String msg) implements FormulaProvider<Dep, Result> {
     @Override
@@ -16,7 +15,7 @@ public record ErrorFormulaProvider<Dep extends Dependency, Result extends Event>
             }
 
             @Override
-            public float compute(Function<Dep, Float> resolveDependencies) {
+            public float evaluate(FloatResolver<Dep> resolveDependencies) {
                 throw new IllegalStateException("This formula (" + this + ") should never be called: " + msg);
             }
         };
@@ -0,0 +1,12 @@
+package core.formula;
+
+import core.dependencies.Dependency;
+
+/*
+Resolves a dependency of a formula to its current value - the primitive counterpart of a Function<Dep, Float>,
+so evaluating a formula never boxes
+ */
+@FunctionalInterface
+public interface FloatResolver<Dep extends Dependency> {
+    float resolve(Dep dep);
+}
@@ -9,6 +9,10 @@ import java.util.function.Function;
 public interface Formula<Dep extends Dependency> extends Serializable {
     Set<Dep> getDeps();
 
-    float compute(Function<Dep, Float> resolveDependencies);
-}
+    float evaluate(FloatResolver<Dep> resolveDependencies);
 
+    //boxing convenience over evaluate - fine for one-off computations, avoid on hot paths
+    default float compute(Function<Dep, Float> resolveDependencies) {
+        return evaluate(resolveDependencies::apply);
+    }
+}
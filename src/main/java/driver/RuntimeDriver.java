@@ -1,7 +1,6 @@
 package driver;
 
 import core.codemodel.events.Assertion;
-import core.codemodel.events.Pi;
 import serializable.SerialFormulas;
 import serializable.SerialResults;
 import spoon.processing.AbstractProcessor;
@@ -68,7 +67,7 @@ public class RuntimeDriver {
 
     public static boolean executeAssertion(int i) {
         if (RuntimeDriverParams.active) {
-            return getSupervisor().executeAssertion(new Assertion(i));
+            return getSupervisor().executeAssertion(i);
         } else {
             return true;
         }
@@ -76,13 +75,13 @@ public class RuntimeDriver {
 
     public static void notifyAssertionPass(int i) {
         if (RuntimeDriverParams.active) {
-            getSupervisor().notifyAssertionPass(new Assertion(i));
+            getSupervisor().notifyAssertionPass(i);
         }
     }
 
     public static void notifyBranchTaken(int i, boolean dir) {
         if (RuntimeDriverParams.active) {
-            getSupervisor().notifyBranchTaken(new Pi(i), dir);
+            getSupervisor().notifyBranchTaken(i, dir);
         }
     }
 
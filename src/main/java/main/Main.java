@@ -1,13 +1,23 @@
 package main;
 
 
+import analyzer.ProgramAnalyzer;
+import analyzer.formulaproviders.arith.FloatKernels;
+import analyzer.formulaproviders.arith.FormulaProgram;
 import core.codemodel.events.Assertion;
+import core.codemodel.events.Event;
+import core.codemodel.events.Pi;
+import core.dependencies.Dependency;
+import core.formula.FloatResolver;
+import core.formula.Formula;
 import driver.AnalysisDriver;
+import serializable.SerialFormulas;
+import supervisor.AssertionSampler;
 import supervisor.ComputationNetwork;
 
-import java.util.List;
-import java.util.Optional;
-import java.util.Random;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.function.Function;
 import java.util.stream.IntStream;
 
 public class Main {
@@ -29,15 +39,14 @@ public class Main {
                 long t = start_t;
                 int i1 = 0;
                 while (true) {
-                    if (supervisor.isStable()) {
-                        long elapsed = System.currentTimeMillis() - t;
-                        System.out.println("Thread round " + i1++ + ": " + elapsed + " elapsed. Total: " + (t - start_t));
+                    supervisor.awaitStable(Long.MAX_VALUE);
+                    long elapsed = System.currentTimeMillis() - t;
+                    System.out.println("Thread round " + i1++ + ": " + elapsed + " elapsed. Total: " + (t - start_t));
 
-                        Thread.sleep(500);
+                    Thread.sleep(500);
 
-                        t = System.currentTimeMillis();
-                        supervisor.notifyAssertionPass(assertion);
-                    }
+                    t = System.currentTimeMillis();
+                    supervisor.notifyAssertionPass(assertion);
                 }
             } catch (InterruptedException e) {
                 throw new IllegalStateException("interrupted");
@@ -104,6 +113,208 @@ public class Main {
         countIterations(time, others, Thread.MIN_PRIORITY, Thread.MAX_PRIORITY);
     }
 
+    public static void benchmarkAssertionSamplers(long time) throws InterruptedException {
+        ComputationNetwork supervisor = ComputationNetwork.generateFromSourcePath(srcPath);
+        int numAssertions = supervisor.numAssertions();
+
+        for (AssertionSampler.Mode mode : AssertionSampler.Mode.values()) {
+            supervisor.setSamplingMode(mode);
+            for (int numThreads : List.of(1, 2, 4, 8, 16)) {
+                Box<Boolean> run = new Box<>();
+                run.val = true;
+                //each thread counts into its own slot so the harness itself doesn't contend
+                long[] hits = new long[numThreads];
+                long[] executions = new long[numThreads];
+                List<Thread> threads = IntStream.range(0, numThreads).mapToObj(t -> new Thread(() -> {
+                    long h = 0, e = 0;
+                    while (run.val) {
+                        if (supervisor.executeAssertion((int) (h++ % numAssertions))) {
+                            e++;
+                        }
+                    }
+                    hits[t] = h;
+                    executions[t] = e;
+                })).toList();
+
+                threads.forEach(Thread::start);
+                Thread.sleep(time);
+                run.val = false;
+                for (Thread t : threads) {
+                    t.join();
+                }
+
+                long totalHits = Arrays.stream(hits).sum();
+                System.out.println(mode + " sampler with " + numThreads + " threads: "
+                        + totalHits / time + " assertion hits/ms, "
+                        + (100f * Arrays.stream(executions).sum()) / totalHits + "% executed");
+            }
+        }
+    }
+
+    //evaluates every formula of the program both as a tree and as a compiled FormulaProgram, on random inputs,
+    //and reports any input on which the two disagree by more than float reassociation error - the program's wide
+    //junctions multiply in a different order
+    @SuppressWarnings("unchecked")
+    public static void crossCheckFormulaPrograms(int trials) {
+        SerialFormulas formulas = new ProgramAnalyzer(srcPath, Optional.empty()).serializeFormulas();
+        Random rand = new Random(0);
+        int compiled = 0, mismatches = 0;
+        for (Map.Entry<Event, Formula<? extends Dependency>> entry : formulas.data().entrySet()) {
+            Optional<? extends FormulaProgram<? extends Dependency>> program = FormulaProgram.compile(entry.getValue());
+            if (program.isEmpty()) {
+                continue;
+            }
+            compiled++;
+            for (int i = 0; i < trials; i++) {
+                Map<Dependency, Float> inputs = new HashMap<>();
+                Function<Dependency, Float> resolver = dep -> inputs.computeIfAbsent(dep, ignored -> rand.nextFloat());
+                float tree = ((Formula<Dependency>) entry.getValue()).compute(resolver);
+                float flat = ((FormulaProgram<Dependency>) program.get()).compute(resolver);
+                //absolute for values near one (disjunctions), relative for tiny ones (long conjunctions)
+                float error = Math.abs(tree - flat);
+                if (error > 1e-5f && error > 1e-4f * Math.abs(tree)) {
+                    mismatches++;
+                    System.out.println("Mismatch on " + entry.getKey() + ": tree " + tree + ", program " + flat);
+                }
+            }
+        }
+        System.out.println(compiled + "/" + formulas.data().size() + " formulas compiled, "
+                + mismatches + " mismatches over " + trials + " trials each");
+    }
+
+    //evaluates every formula of the program, both as a tree and as a compiled program, then runs the program's network
+    //through real cell cycles - and fails if a steady-state round of either allocates anything at all
+    @SuppressWarnings("unchecked")
+    public static void checkEvaluationAllocation(int rounds) {
+        SerialFormulas formulas = new ProgramAnalyzer(srcPath, Optional.empty()).serializeFormulas();
+        List<Formula<Dependency>> trees = formulas.data().values().stream()
+                .map(formula -> (Formula<Dependency>) formula).toList();
+        List<FormulaProgram<Dependency>> programs = trees.stream()
+                .flatMap(formula -> FormulaProgram.compile(formula).stream()).toList();
+        float[][] slotVals = programs.stream().map(program -> new float[program.numSlots()]).toArray(float[][]::new);
+        float[][] stacks = programs.stream().map(program -> new float[program.scratchSize()]).toArray(float[][]::new);
+        FloatResolver<Dependency> resolver = ignored -> 0.5f;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        float sink = 0;
+        long allocated = 0;
+        //the first rounds warm up the JIT, whose escape analysis is what lets the tree walks run allocation-free
+        for (int round = 0; round < 2 * rounds; round++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            //indexed, so the harness itself doesn't allocate iterators
+            for (int i = 0; i < trees.size(); i++) {
+                sink += trees.get(i).evaluate(resolver);
+            }
+            for (int i = 0; i < programs.size(); i++) {
+                sink += programs.get(i).evaluate(slotVals[i], stacks[i]);
+            }
+            if (round >= rounds) {
+                allocated += threads.getCurrentThreadAllocatedBytes() - before;
+            }
+        }
+        System.out.println(trees.size() + " trees and " + programs.size() + " programs evaluated " + rounds
+                + " times: " + allocated + " bytes allocated (" + sink + ")");
+        if (allocated > 0) {
+            throw new IllegalStateException("Steady-state formula evaluation allocated " + allocated + " bytes");
+        }
+
+        //each round takes every branch and passes one assertion, then cycles the network to stability on this thread -
+        //so it covers messages, compiled and specialized rows, incremental products and the frequency table, as the
+        //workers would run them
+        ComputationNetwork network = new ComputationNetwork(formulas, Optional.empty(), Optional.empty());
+        network.initializeAllAssertions(formulas.getAllAssertions());
+        do {
+            network.performCycle();
+        } while (!network.isStable());
+        List<Pi> branches = List.copyOf(formulas.getAllBranches());
+        int numAssertions = network.numAssertions();
+        long cycleAllocated = 0;
+        int cycles = 0;
+        for (int round = 0; round < 2 * rounds; round++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < branches.size(); i++) {
+                network.notifyBranchTaken(branches.get(i), (round + i) % 3 == 0);
+            }
+            if (numAssertions > 0) {
+                network.notifyAssertionPass(round % numAssertions);
+            }
+            do {
+                network.performCycle();
+                cycles += round >= rounds ? 1 : 0;
+            } while (!network.isStable());
+            if (round >= rounds) {
+                cycleAllocated += threads.getCurrentThreadAllocatedBytes() - before;
+            }
+        }
+        System.out.println(cycles + " network cycles over " + rounds + " rounds of " + branches.size()
+                + " branches: " + cycleAllocated + " bytes allocated");
+        if (cycleAllocated > 0) {
+            throw new IllegalStateException("Steady-state network cycles allocated " + cycleAllocated + " bytes");
+        }
+    }
+
+    //builds the program's network once per cell partitioning, and reports how many dependency edges cross cells and
+    //how long the threaded network takes to stabilize - from cold, and again after a burst of branch events
+    public static void benchmarkCellPartitioning(int events) throws InterruptedException {
+        SerialFormulas formulas = new ProgramAnalyzer(srcPath, Optional.empty()).serializeFormulas();
+        List<Pi> branches = List.copyOf(formulas.getAllBranches());
+        for (ComputationNetwork.CellPartitioning partitioning : ComputationNetwork.CellPartitioning.values()) {
+            ComputationNetwork network = new ComputationNetwork(
+                    formulas, Optional.empty(), Optional.empty(), Map.of(), partitioning);
+            network.initializeAllAssertions(formulas.getAllAssertions());
+            long start = System.nanoTime();
+            network.start();
+            network.awaitStable(Long.MAX_VALUE);
+            long coldMillis = (System.nanoTime() - start) / 1_000_000;
+
+            Random rand = new Random(0);
+            start = System.nanoTime();
+            for (int i = 0; i < events; i++) {
+                network.notifyBranchTaken(branches.get(rand.nextInt(branches.size())), rand.nextBoolean());
+            }
+            network.awaitStable(Long.MAX_VALUE);
+            long eventsMillis = (System.nanoTime() - start) / 1_000_000;
+
+            System.out.println(partitioning + ": " + network.cellLocality() + ", stable from cold in " + coldMillis
+                    + "ms, after " + events + " branch events in " + eventsMillis + "ms");
+            network.interrupt();
+        }
+    }
+
+    //times the bulk kernels behind wide junctions against the scalar loops they fall back to and
+    //the boxed stream reductions they replaced, on runs of the given length. The products' inputs stay close to 1 -
+    //as line correctnesses and complemented omegas mostly are - so the results don't flush to zero
+    public static void benchmarkFloatKernels(int length, int rounds) {
+        Random rand = new Random(0);
+        float[] vals = new float[length];
+        for (int i = 0; i < length; i++) {
+            vals[i] = 1.0f - rand.nextFloat() / length;
+        }
+        Map<String, Function<float[], Float>> kernels = new LinkedHashMap<>();
+        kernels.put("stream product", a -> IntStream.range(0, a.length).mapToObj(i -> a[i]).reduce(1f, (l, r) -> l * r));
+        kernels.put("scalar product", a -> FloatKernels.scalarProduct(a, 0, a.length));
+        kernels.put("kernel product", a -> FloatKernels.product(a, 0, a.length));
+        kernels.put("stream complement product",
+                a -> IntStream.range(0, a.length).mapToObj(i -> 1f - a[i]).reduce(1f, (l, r) -> l * r));
+        kernels.put("scalar complement product", a -> FloatKernels.scalarComplementProduct(a, 0, a.length));
+        kernels.put("kernel complement product", a -> FloatKernels.complementProduct(a, 0, a.length));
+
+        System.out.println("vector kernels " + (FloatKernels.VECTORIZED ? "enabled" : "unavailable - scalar fallback"));
+        for (Map.Entry<String, Function<float[], Float>> kernel : kernels.entrySet()) {
+            float sink = 0;
+            //the first half of the rounds warms up the JIT
+            for (int round = 0; round < rounds / 2; round++) {
+                sink += kernel.getValue().apply(vals);
+            }
+            long start = System.nanoTime();
+            for (int round = rounds / 2; round < rounds; round++) {
+                sink += kernel.getValue().apply(vals);
+            }
+            long nanos = (System.nanoTime() - start) / (rounds - rounds / 2);
+            System.out.println(kernel.getKey() + " over " + length + ": " + nanos + "ns (" + sink + ")");
+        }
+    }
+
     public static void testProcessor() {
         AnalysisDriver.run("src/test/java/andrew",
                 Optional.empty(),
@@ -117,6 +328,11 @@ public class Main {
         //testSupervisorCycling();
         testProcessor();
         //testThreadPriority();
+        //benchmarkAssertionSamplers(2000);
+        //crossCheckFormulaPrograms(100);
+        //checkEvaluationAllocation(1000);
+        //benchmarkCellPartitioning(10000);
+        //benchmarkFloatKernels(2000, 100000);
     }
 }
 
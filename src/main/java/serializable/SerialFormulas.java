@@ -72,4 +72,17 @@ public record SerialFormulas(HashMap<Event, Formula<? extends Dependency>> data)
                 e -> e instanceof Assertion a? Stream.of(a): Stream.empty()
         ).collect(Collectors.toUnmodifiableSet());
     }
+
+    //branches and lines have no formulas of their own, so they are found as dependencies of the formulas that read them
+    public Collection<Pi> getAllBranches() {
+        return data.values().stream().flatMap(f -> f.getDeps().stream()).flatMap(
+                d -> d instanceof Pi p? Stream.of(p): Stream.empty()
+        ).collect(Collectors.toUnmodifiableSet());
+    }
+
+    public Collection<Line> getAllLines() {
+        return data.values().stream().flatMap(f -> f.getDeps().stream()).flatMap(
+                d -> d instanceof Line l? Stream.of(l): Stream.empty()
+        ).collect(Collectors.toUnmodifiableSet());
+    }
 }
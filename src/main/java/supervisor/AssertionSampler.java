@@ -0,0 +1,88 @@
+package supervisor;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+An AssertionSampler makes the per-hit decision of whether an assertion executes, given the assertion's current
+execution frequency. It is called on every instrumented assert, from arbitrary application threads, so implementations
+must not share contended state between threads. Assertions unknown when the sampler was made are sampled under
+numbers past the known ones
+ */
+public interface AssertionSampler {
+    boolean sample(int assertion, float frequency);
+
+    enum Mode {
+        //independent draw per hit from the calling thread's own generator
+        THREAD_LOCAL_RANDOM,
+        //deterministic: execute every k-th hit of each thread for a frequency of 1/k, with no random draw at all
+        STRIDE,
+        //independent draws from per-thread generators split off a fixed seed - reproducible for runs whose threads
+        //start sampling in the same order, e.g. single-threaded benchmark runs
+        SEEDED
+    }
+
+    static AssertionSampler ofMode(Mode mode, int numAssertions) {
+        return switch (mode) {
+            case THREAD_LOCAL_RANDOM -> new ThreadLocalRandomSampler();
+            case STRIDE -> new StrideSampler(numAssertions);
+            case SEEDED -> new SeededSampler(Config.ASSERTION_SAMPLING_SEED);
+        };
+    }
+}
+
+class ThreadLocalRandomSampler implements AssertionSampler {
+    @Override
+    public boolean sample(int assertion, float frequency) {
+        return ThreadLocalRandom.current().nextFloat() <= frequency;
+    }
+}
+
+class StrideSampler implements AssertionSampler {
+    //each hit adds the assertion's frequency to its credit, and the hit that carries the credit past 1 executes.
+    //for a frequency of 1/k that is exactly every k-th hit of a thread. Each thread keeps its own credits, so no
+    //update is lost and no cache line is shared. Assertions unknown at construction share one last slot
+    private final int numAssertions;
+    private final ThreadLocal<float[]> credits;
+
+    StrideSampler(int numAssertions) {
+        this.numAssertions = numAssertions;
+        credits = ThreadLocal.withInitial(() -> new float[numAssertions + 1]);
+    }
+
+    @Override
+    public boolean sample(int assertion, float frequency) {
+        float[] credits = this.credits.get();
+        int slot = assertion >= 0 && assertion < numAssertions ? assertion : numAssertions;
+        //a non-finite frequency counts as zero - a NaN added to the credit would stick to it for good
+        float clamped = Float.isFinite(frequency) ? Math.max(0f, Math.min(1f, frequency)) : 0f;
+        float credit = credits[slot] + clamped;
+        if (credit >= 1f) {
+            credits[slot] = credit - 1f;
+            return true;
+        }
+        credits[slot] = credit;
+        return false;
+    }
+}
+
+class SeededSampler implements AssertionSampler {
+    //each thread draws from its own generator, split off the seeded root the first time the thread samples - so
+    //the root's lock is taken once per thread, and hits never contend. The n-th thread to sample always gets the
+    //same generator
+    private final SplittableRandom root;
+    private final ThreadLocal<SplittableRandom> generators = ThreadLocal.withInitial(this::split);
+
+    SeededSampler(long seed) {
+        root = new SplittableRandom(seed);
+    }
+
+    private synchronized SplittableRandom split() {
+        return root.split();
+    }
+
+    @Override
+    public boolean sample(int assertion, float frequency) {
+        return generators.get().nextFloat() <= frequency;
+    }
+}
@@ -0,0 +1,129 @@
+package supervisor;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static supervisor.Config.CELL_PARTITION_MAX_COMMUNITY_SIZE;
+import static supervisor.Config.CELL_PARTITION_ROUNDS;
+
+/*
+Orders events so that events which depend on one another sit next to each other. Cell groups deal events to cells in
+the order they are first seen, so preassigning cells in this order puts rows that notify each other in the same cells
+(within a group) or in a few cells that are linked to each other (across groups) - e.g. the omegas of one procedure
+together, next to the betas and etas they read - and an update wakes fewer cells.
+
+Communities are found by label propagation over the undirected dependency graph: every node starts with its own
+label, then repeatedly takes the label most common among its neighbours, until labels stop changing or
+CELL_PARTITION_ROUNDS pass. A label stops spreading once CELL_PARTITION_MAX_COMMUNITY_SIZE nodes carry it, so hubs -
+assertions read every omega of theirs - can't pull the whole graph into one community. Nodes are visited in a fixed
+pseudorandom order, so the result is deterministic
+ */
+class CellPartitioner {
+    static <N> List<N> order(Collection<N> nodes, Function<N, Collection<? extends N>> dependees) {
+        Map<N, Integer> ids = new HashMap<>();
+        List<N> byId = new ArrayList<>();
+        for (N node : nodes) {
+            if (ids.putIfAbsent(node, byId.size()) == null) {
+                byId.add(node);
+            }
+        }
+        int n = byId.size();
+
+        //undirected adjacency in compressed sparse row form - each dependency edge is stored in both directions
+        int[] offsets = new int[n + 1];
+        for (int to = 0; to < n; to++) {
+            for (N dependee : dependees.apply(byId.get(to))) {
+                Integer from = ids.get(dependee);
+                if (from != null && from != to) {
+                    offsets[from + 1]++;
+                    offsets[to + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] neighbours = new int[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int to = 0; to < n; to++) {
+            for (N dependee : dependees.apply(byId.get(to))) {
+                Integer from = ids.get(dependee);
+                if (from != null && from != to) {
+                    neighbours[fill[from]++] = to;
+                    neighbours[fill[to]++] = from;
+                }
+            }
+        }
+
+        int[] labels = new int[n];
+        int[] communitySizes = new int[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = i;
+            communitySizes[i] = 1;
+        }
+        int[] visitOrder = new int[n];
+        for (int i = 0; i < n; i++) {
+            visitOrder[i] = i;
+        }
+        Random rand = new Random(0);
+        for (int i = n - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int swap = visitOrder[i];
+            visitOrder[i] = visitOrder[j];
+            visitOrder[j] = swap;
+        }
+
+        //neighbour label counts, indexed by label - only the entries listed in touched are ever nonzero
+        int[] counts = new int[n];
+        int[] touched = new int[n];
+        for (int round = 0; round < CELL_PARTITION_ROUNDS; round++) {
+            boolean changed = false;
+            for (int node : visitOrder) {
+                int numTouched = 0;
+                for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                    int label = labels[neighbours[e]];
+                    if (counts[label]++ == 0) {
+                        touched[numTouched++] = label;
+                    }
+                }
+                //keep the current label unless another is strictly more common, and break other ties by lowest label
+                int current = labels[node];
+                int best = current;
+                int bestCount = counts[current];
+                for (int t = 0; t < numTouched; t++) {
+                    int label = touched[t];
+                    if (label != current
+                            && communitySizes[label] < CELL_PARTITION_MAX_COMMUNITY_SIZE
+                            && (counts[label] > bestCount || (counts[label] == bestCount && best != current && label < best))) {
+                        best = label;
+                        bestCount = counts[label];
+                    }
+                }
+                for (int t = 0; t < numTouched; t++) {
+                    counts[touched[t]] = 0;
+                }
+                if (best != current) {
+                    communitySizes[current]--;
+                    communitySizes[best]++;
+                    labels[node] = best;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+        }
+
+        //communities in order of their label, members in their original order
+        Integer[] sorted = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, Comparator.<Integer>comparingInt(i -> labels[i]).thenComparingInt(i -> i));
+        List<N> ordered = new ArrayList<>(n);
+        for (int i : sorted) {
+            ordered.add(byId.get(i));
+        }
+        return ordered;
+    }
+}
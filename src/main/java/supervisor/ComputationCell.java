@@ -1,29 +1,50 @@
 package supervisor;
 
+import analyzer.formulaproviders.arith.FormulaProgram;
+import analyzer.formulaproviders.arith.IncrementalProduct;
 import core.codemodel.events.Event;
 import core.dependencies.Dependency;
+import core.formula.FloatResolver;
 import core.formula.Formula;
 import core.formula.FormulaProvider;
 
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
+import static supervisor.Config.CELL_TASK_BATCH_SIZE;
+import static supervisor.Config.CELL_TASK_TIME_SLICE_NANOS;
+import static supervisor.Config.COMPILE_FORMULAS;
 import static supervisor.Config.COMPUTATION_CELL_FRESH_VAL_TRESHOLD;
+import static supervisor.Config.COMPUTATION_CELL_GROUP_MAX_CELL_SIZE;
+import static supervisor.Config.FORMULA_SPECIALIZATION_MAX_OPS;
+import static supervisor.Config.FORMULA_SPECIALIZATION_THRESHOLD;
+import static supervisor.Config.INCREMENTAL_PRODUCT_MIN_OPERANDS;
+import static supervisor.Config.INCREMENTAL_PRODUCT_REFRESH_INTERVAL;
+import static supervisor.Config.NETWORK_WORKER_THREADS;
 
-public class ComputationCell<Dep extends Dependency, Result extends Event, MsgT> extends Thread implements RowProvider<Dep, Result, MsgT> {
+public class ComputationCell<Dep extends Dependency, Result extends Event, MsgT> implements RowProvider<Dep, Result, MsgT> {
 
     private final ComputationNetwork parentNetwork;
     private final Function<Result, Float> defaultValProducer;
     private final boolean rowsBeginInitialized;
     private final FormulaProvider<Dep, Result> formulaProvider;
     private final MessageProcessorProducer<Result, MsgT> messageProcessorProducer;
+    private final RowUpdateListener<Result> rowUpdateListener;
+    //shared by all cells of the group - rows keep only their id into it
+    private final RowValueStore<Result> values;
+    //what the values in the store are - rows read each other's stored values directly, so only groups nothing
+    //depends on may store anything but probabilities
+    private final ValueDomain domain;
 
     private final String cellName;
 
@@ -32,77 +53,375 @@ public class ComputationCell<Dep extends Dependency, Result extends Event, MsgT>
                     boolean rowsBeginInitialized,
                     FormulaProvider<Dep, Result> formulaProvider,
                     MessageProcessorProducer<Result, MsgT> messageProcessorProducer,
+                    RowUpdateListener<Result> rowUpdateListener,
+                    RowValueStore<Result> values,
+                    ValueDomain domain,
                     String cellName) {
         this.parentNetwork = parentNetwork;
         this.defaultValProducer = defaultValProducer;
         this.rowsBeginInitialized = rowsBeginInitialized;
         this.formulaProvider = formulaProvider;
         this.messageProcessorProducer = messageProcessorProducer;
+        this.rowUpdateListener = rowUpdateListener;
+        this.values = values;
+        this.domain = domain;
         this.cellName = cellName;
     }
 
+    //row state flags, packed into one int per row of the group's RowValueStore so they cost no objects of their own
+    private static final int DEPENDEES_UPDATED = 1;
+    private static final int FORMULA_UPDATED = 1 << 1;
+    //set while the row sits in a worklist, so a burst of notifications queues it only once
+    private static final int QUEUED = 1 << 2;
+    private static final int INITIALIZED = 1 << 3;
+    //set while a drainer processes the row - several drainers may work through one cell's worklist at once, but
+    //never on the same row
+    private static final int PROCESSING = 1 << 4;
+    //set by a drainer that polled the row while another was processing it - that one re-queues the row when done
+    private static final int PENDING = 1 << 5;
+    //set from when the row is first queued until it is processed with nothing queued behind it - cells count rows
+    //carrying it, and the network cells with any, so telling whether it is stable doesn't take a scan
+    private static final int ACTIVE = 1 << 6;
+    private static final ComputationRow<?, ?, ?>[] NO_ROWS = new ComputationRow[0];
+    private static final ConeWatch[] NO_WATCHES = new ConeWatch[0];
+
     class Row implements ComputationRow<Dep, Result, MsgT> {
-        boolean initialized = rowsBeginInitialized;
+        private final Result event;
 
         //TODO: concurrent updates to this formula would cause problems, ensure they don't occur
         //not a problem cause we're not gonna be updating formulas
         private Formula<Dep> formula;
-        private volatile float val;
-        private final Set<ComputationRow<? super Result, ?, ?>> dependers = ConcurrentHashMap.newKeySet();
-        private final Map<Dep, ComputationRow<?, ? extends Dep, ?>> dependees = new HashMap<>();
-        private final AtomicBoolean dependeesUpdated = new AtomicBoolean(false);
-        private boolean dependeesUpdatedSnapshot;
+        //the formula lowered to a flat program, when it can be, with scratch arrays reused by every evaluation.
+        //Null program means the formula is evaluated as a tree, through resolver
+        private FormulaProgram<Dep> program;
+        private float[] slotVals;
+        private float[] stack;
+        private FloatResolver<Dep> resolver;
+        //recompute-count profile: once a compiled row has been recomputed FORMULA_SPECIALIZATION_THRESHOLD times, its
+        //program is specialized into a method handle tree - so only rows that are actually hot pay for generating it
+        private int recomputes;
+        private MethodHandle specialized;
+        //set instead of program for large conjunctions and disjunctions, which are maintained incrementally - see
+        //IncrementalProduct. Volatile since dependees notifying the row record their slot in it
+        private volatile ProductBinding<Dep> product;
+        //index of this row's value and flags in the group's RowValueStore
+        private final int id;
+
+        //edges are plain arrays rather than per-row hash sets and maps. Dependees are only written by the thread
+        //processing this row - volatile only so cone watches can walk them from other threads - and are ordered like
+        //the compiled program's slots, so they double as its inputs.
+        //Dependers are appended by other rows as they bind to this one: writes are serialized on the row, and
+        //readers see a prefix of the array - entries past numDependers, or nulled by a removal, are skipped
+        private List<Dep> dependeeDeps = List.of();
+        @SuppressWarnings("unchecked")
+        private volatile ComputationRow<?, ? extends Dep, ?>[] dependeeRows =
+                (ComputationRow<?, ? extends Dep, ?>[]) NO_ROWS;
+        private volatile ComputationRow<?, ?, ?>[] dependers = NO_ROWS;
+        private volatile int numDependers = 0;
+        //watches of awaitStable calls whose cones hold this row - almost always none, so the cost to activation and
+        //deactivation is one volatile read. Copy-on-write, serialized on the row
+        private volatile ConeWatch[] watches = NO_WATCHES;
+
         private final MessageProcessor<MsgT> messageProcessor;
 
         private Row(Result event) {
-            val = defaultValProducer.apply(event);
+            this.event = event;
+            id = values.allocate(event, domain.toStored(defaultValProducer.apply(event)),
+                    rowsBeginInitialized ? INITIALIZED : 0);
             messageProcessor = messageProcessorProducer.produce(event);
         }
 
-        @Override
-        public void notifyDependeesUpdated() {
-            dependeesUpdated.set(true);
+        boolean isInitialized() {
+            return (values.flags(id) & INITIALIZED) != 0;
         }
 
-        void takeDependeesUpdatedSnapshot() {
-            dependeesUpdatedSnapshot = dependeesUpdated.getAndSet(false);
+        boolean isActive() {
+            return (values.flags(id) & ACTIVE) != 0;
         }
 
-        private final AtomicBoolean formulaUpdated = new AtomicBoolean(false);
-        private boolean formulaUpdatedSnapshot;
+        private void setFlag(int flag) {
+            values.orFlags(id, flag);
+        }
 
-        void notifyFormulaUpdated() {
-            formulaUpdated.set(true);
+        void schedule() {
+            if ((values.flags(id) & QUEUED) != 0) {
+                return;
+            }
+            int previous = values.orFlags(id, QUEUED | ACTIVE);
+            if ((previous & ACTIVE) == 0) {
+                rowActivated();
+                for (ConeWatch watch : watches) {
+                    watch.rowActivated(this);
+                }
+            }
+            if ((previous & QUEUED) == 0) {
+                if (parentNetwork.evaluatesTopologically()) {
+                    parentNetwork.scheduleTopologically(this);
+                } else {
+                    enqueue(this);
+                }
+            }
+        }
+
+        //clears the active flag unless the row was queued again while it was processed. Called after the row has
+        //notified its dependers, so they are active before it stops being - the network's count never dips to zero
+        //while a change is still propagating
+        private void deactivate() {
+            while (true) {
+                int f = values.flags(id);
+                if ((f & QUEUED) != 0) {
+                    return;
+                }
+                if (values.compareAndSetFlags(id, f, f & ~ACTIVE)) {
+                    for (ConeWatch watch : watches) {
+                        watch.rowDeactivated(this);
+                    }
+                    rowDeactivated();
+                    return;
+                }
+            }
+        }
+
+        //clears the queued flag and the update flags in one step, returning the update flags as they were - so
+        //notifications that arrive while this row is processed queue it again
+        private int takeUpdates() {
+            return values.andFlags(id, ~(QUEUED | DEPENDEES_UPDATED | FORMULA_UPDATED));
+        }
+
+        //claims the row for processing, or - if another drainer holds it - leaves it to that drainer to re-queue
+        private boolean claim() {
+            while (true) {
+                int f = values.flags(id);
+                int claimed = (f & PROCESSING) == 0 ? f | PROCESSING : f | PENDING;
+                if (values.compareAndSetFlags(id, f, claimed)) {
+                    return (f & PROCESSING) == 0;
+                }
+            }
+        }
+
+        //releases a claimed row, returning whether a drainer polled it in the meantime and it must be queued again
+        private boolean release() {
+            while (true) {
+                int f = values.flags(id);
+                if (values.compareAndSetFlags(id, f, f & ~(PROCESSING | PENDING))) {
+                    return (f & PENDING) != 0;
+                }
+            }
+        }
+
+        void process() {
+            processRow(this);
+        }
+
+        ComputationCell<Dep, Result, MsgT> cell() {
+            return ComputationCell.this;
+        }
+
+        Collection<ComputationRow<?, ? extends Dep, ?>> dependeeRows() {
+            return Arrays.asList(dependeeRows);
+        }
+
+        synchronized void addWatch(ConeWatch watch) {
+            ConeWatch[] current = watches;
+            ConeWatch[] added = Arrays.copyOf(current, current.length + 1);
+            added[current.length] = watch;
+            watches = added;
         }
 
-        void takeFormulaUpdatedSnapshot() {
-            formulaUpdatedSnapshot = formulaUpdated.getAndSet(false);
+        synchronized void removeWatch(ConeWatch watch) {
+            List<ConeWatch> remaining = new ArrayList<>(Arrays.asList(watches));
+            remaining.remove(watch);
+            watches = remaining.toArray(NO_WATCHES);
+        }
+
+        synchronized void addDepender(ComputationRow<?, ?, ?> depender) {
+            ComputationRow<?, ?, ?>[] current = dependers;
+            int n = numDependers;
+            if (n == current.length) {
+                current = Arrays.copyOf(current, Math.max(4, n * 2));
+            }
+            current[n] = depender;
+            //publish the array before the count, so a reader that sees the count sees an array holding that many
+            dependers = current;
+            numDependers = n + 1;
+        }
+
+        @Override
+        public synchronized void notifyNoLongerDependee(ComputationRow<? super Result, ?, ?> formerDependerRow) {
+            ComputationRow<?, ?, ?>[] current = dependers;
+            int n = numDependers;
+            for (int i = 0; i < n; i++) {
+                if (current[i] == formerDependerRow) {
+                    //copy rather than compact in place, so a concurrent reader never misses a depender that moved
+                    ComputationRow<?, ?, ?>[] removed = Arrays.copyOf(current, current.length);
+                    removed[i] = removed[n - 1];
+                    removed[n - 1] = null;
+                    dependers = removed;
+                    numDependers = n - 1;
+                    return;
+                }
+            }
+        }
+
+        private void notifyDependers() {
+            int n = numDependers;
+            ComputationRow<?, ?, ?>[] current = dependers;
+            for (int i = 0; i < Math.min(n, current.length); i++) {
+                ComputationRow<?, ?, ?> depender = current[i];
+                if (depender != null) {
+                    depender.notifyDependeeUpdated(this);
+                }
+            }
         }
 
         @Override
-        public void notifyNoLongerDependee(ComputationRow<? super Result, ?, ?> formerDependerRow) {
-            dependers.remove(formerDependerRow);
+        public void notifyDependeeUpdated(ComputationRow<?, ?, ?> dependee) {
+            ProductBinding<Dep> binding = product;
+            if (binding != null) {
+                binding.markDirty(dependee);
+            }
+            setFlag(DEPENDEES_UPDATED);
+            schedule();
+        }
+
+        void notifyFormulaUpdated() {
+            setFlag(FORMULA_UPDATED);
+            schedule();
         }
 
         @Override
         public void passMessage(MsgT msg) {
             messageProcessor.passMessage(msg);
+            schedule();
         }
 
         @Override
         public float getVal() {
-            return val;
+            return values.get(id);
+        }
+    }
+
+    //an incremental product bound to a row's dependee rows, collecting the slots of the dependees that notified the
+    //row since it was last processed
+    private static final class ProductBinding<Dep extends Dependency> {
+        private final IncrementalProduct<Dep> product;
+        private final Map<ComputationRow<?, ?, ?>, Integer> slots = new IdentityHashMap<>();
+        private final boolean[] dirty;
+        private final int[] dirtySlots;
+        private int numDirty = 0;
+        //what takeDirty hands the processing thread - only ever touched by it
+        private final int[] taken;
+
+        private ProductBinding(IncrementalProduct<Dep> product, ComputationRow<?, ?, ?>[] slotRows) {
+            this.product = product;
+            for (int i = 0; i < slotRows.length; i++) {
+                slots.put(slotRows[i], i);
+            }
+            dirty = new boolean[slotRows.length];
+            dirtySlots = new int[slotRows.length];
+            taken = new int[slotRows.length];
+        }
+
+        synchronized void markDirty(ComputationRow<?, ?, ?> dependee) {
+            Integer slot = slots.get(dependee);
+            if (slot != null && !dirty[slot]) {
+                dirty[slot] = true;
+                dirtySlots[numDirty++] = slot;
+            }
+        }
+
+        //moves the dirty slots into taken, returning how many there are
+        synchronized int takeDirty() {
+            int n = numDirty;
+            for (int i = 0; i < n; i++) {
+                taken[i] = dirtySlots[i];
+                dirty[dirtySlots[i]] = false;
+            }
+            numDirty = 0;
+            return n;
         }
     }
 
     private final Map<Result, Row> store = new ConcurrentHashMap<>();
 
+    //rows with pending work - a dirty dependee, a new message, or no value computed yet. Once the network's workers
+    //are started, a non-empty worklist puts drain tasks for this cell on the network's worker pool, so a converged
+    //cell costs nothing and holds no thread. A cell whose backlog would take one drainer more than a time slice gets
+    //more drainers, up to one per worker - idle workers take over an overloaded cell's work instead of waiting on it
+    private final RowWorklist<Row> worklist = new RowWorklist<>(COMPUTATION_CELL_GROUP_MAX_CELL_SIZE);
+    //drain tasks for this cell submitted or running
+    private final AtomicInteger numDrainers = new AtomicInteger(0);
+    //moving average of the time to process one of this cell's rows - a conjunction over every line of the program
+    //costs orders of magnitude more than a branch. Races between drainers updating it only lose a sample
+    private volatile long rowCostNanos = 0;
+    //this cell's rows carrying the active flag. The network only counts cells with active rows, so rows going active
+    //and inactive contend on their own cell, and on the network only when the whole cell wakes up or settles
+    private final AtomicInteger numActiveRows = new AtomicInteger(0);
+
     int size() {
         return store.size();
     }
 
     private Row getOrCreateRow(Result event) {
-        return store.computeIfAbsent(event, Row::new);
+        Row row = store.get(event);
+        if (row == null) {
+            row = store.computeIfAbsent(event, e -> {
+                Row newRow = new Row(e);
+                if (!newRow.isInitialized()) {
+                    newRow.schedule();
+                }
+                return newRow;
+            });
+        }
+        return row;
+    }
+
+    private void enqueue(Row row) {
+        worklist.add(row);
+        wakeUp();
+    }
+
+    private void rowActivated() {
+        if (numActiveRows.getAndIncrement() == 0) {
+            parentNetwork.notifyCellActivated();
+        }
+    }
+
+    private void rowDeactivated() {
+        if (numActiveRows.decrementAndGet() == 0) {
+            parentNetwork.notifyCellDeactivated();
+        }
+    }
+
+    private void wakeUp() {
+        if (!parentNetwork.workersStarted()) {
+            return;
+        }
+        int drainers = numDrainers.get();
+        while (drainers < wantedDrainers()) {
+            if (numDrainers.compareAndSet(drainers, drainers + 1)) {
+                parentNetwork.submitCellTask(this::drain);
+                return;
+            }
+            drainers = numDrainers.get();
+        }
+    }
+
+    //one drainer for any backlog at all, plus one for each further time slice of estimated work in it
+    private int wantedDrainers() {
+        int queued = worklist.size();
+        if (queued == 0) {
+            return 0;
+        }
+        long work = queued * rowCostNanos;
+        return (int) Math.min(NETWORK_WORKER_THREADS, 1 + work / CELL_TASK_TIME_SLICE_NANOS);
+    }
+
+    //called once when the network's workers start, to pick up rows queued before then
+    void start() {
+        if (!worklist.isEmpty()) {
+            wakeUp();
+        }
     }
 
     /**
@@ -113,7 +432,22 @@ public class ComputationCell<Dep extends Dependency, Result extends Event, MsgT>
      */
     @Override
     public float get(Result event) {
-        return getOrCreateRow(event).getVal();
+        return domain.fromStored(getOrCreateRow(event).getVal());
+    }
+
+    @Override
+    public Row lookupRow(Result event) {
+        return getOrCreateRow(event);
+    }
+
+    //the event's row, or null if it has none yet - never creates one
+    Row findRow(Result event) {
+        return store.get(event);
+    }
+
+    //the row's id into the group's value store - creating the row if need be
+    int rowId(Result event) {
+        return getOrCreateRow(event).id;
     }
 
     @Override
@@ -135,98 +469,221 @@ public class ComputationCell<Dep extends Dependency, Result extends Event, MsgT>
      */
     @Override
     public Row getRow(Result event, ComputationRow<? super Result, ?, ?> requester) {
+        if (domain != ValueDomain.PROBABILITY) {
+            throw new IllegalStateException(
+                    cellName + " stores " + domain + " values, which can't be read as dependees");
+        }
         Row row = getOrCreateRow(event);
-        row.dependers.add(requester);
+        row.addDepender(requester);
         return row;
     }
 
-    Stream<Float> streamValues() {
-        return store.values().stream().map(Row::getVal);
-    }
-
     Stream<Map.Entry<Result, Row>> streamRows() {
         return store.entrySet().stream();
     }
 
-    Stream<Result> streamKeys() {
-        return store.keySet().stream();
+    //processes rows for up to CELL_TASK_TIME_SLICE_NANOS, or CELL_TASK_BATCH_SIZE rows, then gives the worker back to
+    //the pool - resubmitting if rows remain - so one busy cell can't starve the others sharing the pool
+    private void drain() {
+        long start = System.nanoTime();
+        long elapsed = 0;
+        int processed = 0;
+        try {
+            while (processed < CELL_TASK_BATCH_SIZE && elapsed < CELL_TASK_TIME_SLICE_NANOS) {
+                Row row = worklist.poll();
+                if (row == null) {
+                    break;
+                }
+                if (row.claim()) {
+                    //a row that throws is still released, so it can't stay claimed and shut out every later drainer
+                    try {
+                        processRow(row);
+                    } finally {
+                        if (row.release()) {
+                            enqueue(row);
+                        }
+                    }
+                    processed++;
+                }
+                elapsed = System.nanoTime() - start;
+            }
+        } finally {
+            if (processed > 0) {
+                long cost = elapsed / processed;
+                rowCostNanos = rowCostNanos == 0 ? cost : (3 * rowCostNanos + cost) / 4;
+            }
+            numDrainers.decrementAndGet();
+            //re-check after releasing, so a row queued in between can't be missed
+            wakeUp();
+        }
     }
 
-    static AtomicInteger num_cells = new AtomicInteger(0);
-
-    @Override
-    public void run() {
-        setPriority(Config.NETWORK_THREAD_PRIORITY);
-        setName("ComputationCell: " + cellName + " - " + num_cells.incrementAndGet());
-        while (!isInterrupted()) {
-            performCycle();
+    //processes the rows that are queued when this is called - mostly for debugging and warmup. Rows are claimed as
+    //drainers claim them, so this is safe to call while the workers run
+    void performCycle() {
+        for (int queuedRows = worklist.size(); queuedRows > 0; queuedRows--) {
+            Row row = worklist.poll();
+            if (row == null) {
+                break;
+            }
+            if (row.claim()) {
+                try {
+                    processRow(row);
+                } finally {
+                    if (row.release()) {
+                        enqueue(row);
+                    }
+                }
+            }
         }
     }
 
-    void performCycle() {
-        store.forEach((event, row) -> {
-            row.takeDependeesUpdatedSnapshot();
-            row.takeFormulaUpdatedSnapshot();
-
-            //if the formula was updated, or never set because this row isn't initialized,
-            //we have to get the formula from the formula provider and fix any differences
-            //in dependees
-            if (row.formulaUpdatedSnapshot || !row.initialized) {
-                row.formula = formulaProvider.get(event);
-                Set<Dep> newDependees = row.formula.getDeps();
-
-                //first we take care of removing all dependees of the old formula
-                //that are not dependees of the new formula
-                Set<Dep> removedDependees = new HashSet<>();
-                row.dependees.forEach((dep, depRow) -> {
-                    if (!newDependees.contains(dep)) {
-                        depRow.notifyNoLongerDependee(row);
-                        removedDependees.add(dep);
+    private void processRow(Row row) {
+        Result event = row.event;
+        int updates = row.takeUpdates();
+        boolean initialized = (updates & INITIALIZED) != 0;
+        boolean formulaUpdated = (updates & FORMULA_UPDATED) != 0;
+        boolean dependeesUpdated = (updates & DEPENDEES_UPDATED) != 0;
+
+        //if the formula was updated, or never set because this row isn't initialized,
+        //we have to get the formula from the formula provider and fix any differences
+        //in dependees
+        if (formulaUpdated || !initialized) {
+            parentNetwork.notifyDependencyGraphChanged();
+            bindFormula(row, formulaProvider.get(event));
+        }
+
+        float oldVal = row.getVal();
+
+        //process any messages that might be waiting on this row - message processors work on probabilities
+        float oldProbability = domain.fromStored(oldVal);
+        float messaged = row.messageProcessor.processMessages(oldProbability);
+        float newVal = messaged == oldProbability ? oldVal : domain.toStored(messaged);
+
+        //if this row had its formula or its dependees updated, or if it is only now being initialized,
+        //recompute its value with the contained formula
+        if (formulaUpdated || dependeesUpdated || !initialized) {
+            ProductBinding<Dep> binding = row.product;
+            if (binding != null) {
+                ComputationRow<?, ? extends Dep, ?>[] slotRows = row.dependeeRows;
+                int numDirty = binding.takeDirty();
+                if (formulaUpdated || !initialized || binding.product.refreshDue()) {
+                    for (int i = 0; i < slotRows.length; i++) {
+                        row.slotVals[i] = slotRows[i].getVal();
                     }
-                });
-                //can't do this during the prior iteration, so have to do it now
-                removedDependees.forEach(row.dependees::remove);
-
-                //now we take care of obtaining rows for all dependees of the new formula
-                //that weren't dependees of the old formula
-                newDependees.forEach(dep -> {
-                    if (!row.dependees.containsKey(dep)) {
-                        row.dependees.put(dep, parentNetwork.getRow(dep, row));
+                    newVal = binding.product.evaluateAll(row.slotVals);
+                } else {
+                    for (int i = 0; i < numDirty; i++) {
+                        int slot = binding.taken[i];
+                        row.slotVals[slot] = slotRows[slot].getVal();
                     }
-                });
+                    newVal = binding.product.update(row.slotVals, binding.taken, numDirty);
+                }
+                //a log-domain row takes the product's log directly, so it never underflows on the way
+                newVal = domain == ValueDomain.LOG_PROBABILITY ? (float) binding.product.logValue() : newVal;
+            } else if (row.program != null) {
+                ComputationRow<?, ? extends Dep, ?>[] slotRows = row.dependeeRows;
+                for (int i = 0; i < slotRows.length; i++) {
+                    row.slotVals[i] = slotRows[i].getVal();
+                }
+                if (row.specialized == null
+                        && ++row.recomputes == FORMULA_SPECIALIZATION_THRESHOLD
+                        && row.program.numOps() <= FORMULA_SPECIALIZATION_MAX_OPS) {
+                    row.specialized = row.program.specialize();
+                }
+                newVal = domain.toStored(row.specialized != null ?
+                        FormulaProgram.evaluate(row.specialized, row.slotVals) :
+                        row.program.evaluate(row.slotVals, row.stack));
+            } else {
+                newVal = domain.toStored(row.formula.evaluate(row.resolver));
             }
+        }
 
-            float oldVal = row.val;
+        values.set(row.id, newVal);
 
-            //process any messages that might be waiting on this row
-            row.val = row.messageProcessor.processMessages(oldVal);
+        //if value was updated significantly, notify dependers
+        if (Math.abs(oldVal - newVal) >= COMPUTATION_CELL_FRESH_VAL_TRESHOLD) {
+            row.notifyDependers();
+            rowUpdateListener.rowUpdated(event, domain.fromStored(newVal));
+        } else if (!initialized) {
+            rowUpdateListener.rowUpdated(event, domain.fromStored(newVal));
+        }
 
-            //if this row had its formula or its dependees updated, or if it is only now being initialized,
-            //recompute its value with the contained formula
-            if (row.formulaUpdatedSnapshot ||
-                    row.dependeesUpdatedSnapshot ||
-                    !row.initialized) {
-                row.val = row.formula.compute(dep -> row.dependees.computeIfAbsent(dep, d -> {
-                            throw new IllegalStateException("dependee " + d + " should not be missing from table");
-                        }
-                ).getVal());
-            }
+        if (!initialized) {
+            row.setFlag(INITIALIZED);
+        }
+        row.deactivate();
+    }
 
-            //if value was updated significantly, notify dependers
-            if (Math.abs(oldVal - row.val) >= COMPUTATION_CELL_FRESH_VAL_TRESHOLD) {
-                row.dependers.forEach(ComputationRow::notifyDependeesUpdated);
-            }
+    @SuppressWarnings("unchecked")
+    private void bindFormula(Row row, Formula<Dep> formula) {
+        row.formula = formula;
+        IncrementalProduct<Dep> product = COMPILE_FORMULAS ?
+                IncrementalProduct.of(formula, INCREMENTAL_PRODUCT_MIN_OPERANDS, INCREMENTAL_PRODUCT_REFRESH_INTERVAL)
+                        .orElse(null) :
+                null;
+        row.program = COMPILE_FORMULAS && product == null ? FormulaProgram.compile(formula).orElse(null) : null;
+        row.recomputes = 0;
+        row.specialized = null;
+
+        //dependees are laid out in the product's or program's slot order when there is one
+        List<Dep> newDeps = product != null ? product.slotDeps() :
+                row.program != null ? row.program.slotDeps() :
+                List.copyOf(formula.getDeps());
+
+        //keep the rows of dependees shared with the old formula, drop the rest, and request rows for the new ones
+        Map<Dep, ComputationRow<?, ? extends Dep, ?>> oldRows = new HashMap<>();
+        for (int i = 0; i < row.dependeeRows.length; i++) {
+            oldRows.put(row.dependeeDeps.get(i), row.dependeeRows[i]);
+        }
+        ComputationRow<?, ? extends Dep, ?>[] newRows = new ComputationRow[newDeps.size()];
+        for (int i = 0; i < newRows.length; i++) {
+            ComputationRow<?, ? extends Dep, ?> kept = oldRows.remove(newDeps.get(i));
+            newRows[i] = kept != null ? kept : parentNetwork.getRow(newDeps.get(i), row);
+        }
+        oldRows.values().forEach(depRow -> depRow.notifyNoLongerDependee(row));
+        row.dependeeDeps = newDeps;
+        row.dependeeRows = newRows;
+        //published before the watches are read, so a watch added meanwhile either sees the new dependees or is seen
+        for (ConeWatch watch : row.watches) {
+            watch.watchCones(Arrays.asList(newRows));
+        }
 
-            row.initialized = true;
-        });
+        //published before the row reads any dependee value, so a dependee that changes after being read is marked dirty
+        row.product = product != null ? new ProductBinding<>(product, newRows) : null;
+        if (product != null) {
+            row.slotVals = new float[newRows.length];
+            row.stack = null;
+            row.resolver = null;
+        } else if (row.program != null) {
+            row.slotVals = new float[newRows.length];
+            row.stack = new float[row.program.scratchSize()];
+            row.resolver = null;
+        } else {
+            row.slotVals = null;
+            row.stack = null;
+            //slots looked up by hash, built once per binding - a scan of the deps per read would make evaluating a
+            //wide formula quadratic
+            Map<Dep, ComputationRow<?, ? extends Dep, ?>> rowsByDep = new HashMap<>();
+            for (int i = 0; i < newRows.length; i++) {
+                rowsByDep.put(newDeps.get(i), newRows[i]);
+            }
+            row.resolver = dep -> {
+                ComputationRow<?, ? extends Dep, ?> dependee = rowsByDep.get(dep);
+                if (dependee == null) {
+                    throw new IllegalStateException("dependee " + dep + " should not be missing from table");
+                }
+                return dependee.getVal();
+            };
+        }
     }
 
     public long numActive() {
-        return store.values().stream().filter(row -> row.dependeesUpdated.get() || !row.initialized || row.formulaUpdated.get()).count();
+        return numActiveRows.get();
     }
 
     @Override
     public String toString() {
-        return store.size() + " rows (" + numActive() + " active)";
+        return cellName + ": " + store.size() + " rows (" + numActive() + " active)";
     }
 }
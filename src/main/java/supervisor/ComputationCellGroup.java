@@ -7,21 +7,25 @@ import util.Util;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
 import static supervisor.Config.BINS_FOR_DISPLAY;
 import static supervisor.Config.COMPUTATION_CELL_GROUP_MAX_CELL_SIZE;
+import static supervisor.Config.OFF_HEAP_ROW_STORAGE;
 
 
-public class ComputationCellGroup<Dep extends Dependency, Result extends Event, MsgT> extends Thread implements RowProvider<Dep, Result, MsgT>, Runnable {
+public class ComputationCellGroup<Dep extends Dependency, Result extends Event, MsgT> implements RowProvider<Dep, Result, MsgT> {
     private final ComputationNetwork parentNetwork;
     private final Function<Result, Float> defaultValProducer;
     private final boolean rowsBeginInitialized;
     private final FormulaProvider<Dep, Result> formulaProvider;
     private final MessageProcessorProducer<Result, MsgT> messageProcessorProducer;
+    private final RowUpdateListener<Result> rowUpdateListener;
+    private final ValueDomain domain;
 
     private final String cellName;
 
@@ -29,77 +33,106 @@ public class ComputationCellGroup<Dep extends Dependency, Result extends Event,
                          Function<Result, Float> defaultValProducer,
                          boolean rowsBeginInitialized, FormulaProvider<Dep, Result> formulaProvider,
                          MessageProcessorProducer<Result, MsgT> messageProcessorProducer,
+                         RowUpdateListener<Result> rowUpdateListener,
+                         String cellName) {
+        this(parentNetwork, defaultValProducer, rowsBeginInitialized, formulaProvider, messageProcessorProducer,
+                rowUpdateListener, ValueDomain.PROBABILITY, cellName);
+    }
+
+    ComputationCellGroup(ComputationNetwork parentNetwork,
+                         Function<Result, Float> defaultValProducer,
+                         boolean rowsBeginInitialized, FormulaProvider<Dep, Result> formulaProvider,
+                         MessageProcessorProducer<Result, MsgT> messageProcessorProducer,
+                         RowUpdateListener<Result> rowUpdateListener,
+                         ValueDomain domain,
                          String cellName) {
         this.parentNetwork = parentNetwork;
         this.defaultValProducer = defaultValProducer;
         this.rowsBeginInitialized = rowsBeginInitialized;
         this.formulaProvider = formulaProvider;
         this.messageProcessorProducer = messageProcessorProducer;
+        this.rowUpdateListener = rowUpdateListener;
+        this.domain = domain;
         this.cellName = cellName;
     }
 
-    private final List<ComputationCell<Dep, Result, MsgT>> cells = new LinkedList<>();
+    //the group's cells, copy-on-write: a list is never mutated, only replaced (by CAS) with a longer one
+    private final AtomicReference<List<ComputationCell<Dep, Result, MsgT>>> cells = new AtomicReference<>(List.of());
 
-    private List<ComputationCell<Dep, Result, MsgT>> readCells() {
-        cellsLock.readLock().lock();
-        try {
-            return new ArrayList<>(cells);
-        } finally {
-            cellsLock.readLock().unlock();
-        }
+    private final RowValueStore<Result> values = RowValueStore.create(OFF_HEAP_ROW_STORAGE);
 
+    private List<ComputationCell<Dep, Result, MsgT>> readCells() {
+        return cells.get();
     }
 
+    //cell assignment is fixed the first time an event is seen. Known events are assigned up front by preassignCells,
+    //so at runtime this is one ConcurrentHashMap read and no reader ever blocks another
     private final Map<Result, ComputationCell<Dep, Result, MsgT>> cellTable = new ConcurrentHashMap<>();
 
-    private final ReadWriteLock cellsLock = new ReentrantReadWriteLock();
+    //events are dealt to cells in order of first appearance, COMPUTATION_CELL_GROUP_MAX_CELL_SIZE to a cell - so
+    //every cell but the last is full, as with the old smallest-cell search, without scanning the cells
+    private final AtomicInteger numAssigned = new AtomicInteger(0);
 
     private ComputationCell<Dep, Result, MsgT> getCellForEvent(Result event) {
-        cellsLock.readLock().lock();
-        try {
-            if (cellTable.containsKey(event)) {
-                return cellTable.get(event);
-            }
-        } finally {
-            cellsLock.readLock().unlock();
+        ComputationCell<Dep, Result, MsgT> cell = cellTable.get(event);
+        if (cell != null) {
+            return cell;
         }
+        //only a new event gets here, and only contends with lookups hashing to the same bin
+        return cellTable.computeIfAbsent(event,
+                ignored -> cellAt(numAssigned.getAndIncrement() / COMPUTATION_CELL_GROUP_MAX_CELL_SIZE));
+    }
 
-        cellsLock.writeLock().lock();
-        try {
-            Optional<ComputationCell<Dep, Result, MsgT>> smallest = cells.isEmpty() ?
-                    Optional.empty() :
-                    Optional.of(Collections.min(cells, Comparator.comparingInt(ComputationCell::size)));
-            ComputationCell<Dep, Result, MsgT> target;
-            if (smallest.isPresent() && smallest.get().size() < COMPUTATION_CELL_GROUP_MAX_CELL_SIZE) {
-                target = smallest.get();
-            } else {
-                ComputationCell<Dep, Result, MsgT> newCell =
-                        new ComputationCell<>(
-                                parentNetwork, defaultValProducer, rowsBeginInitialized,
-                                formulaProvider, messageProcessorProducer, cellName);
-                cells.add(newCell);
-                if (isAlive()) {
-                    newCell.start();
-                }
-                target = newCell;
+    private ComputationCell<Dep, Result, MsgT> cellAt(int index) {
+        while (true) {
+            List<ComputationCell<Dep, Result, MsgT>> current = cells.get();
+            if (index < current.size()) {
+                return current.get(index);
+            }
+            //a thread that loses the race drops its new cells - they have no rows yet, so nothing refers to them
+            List<ComputationCell<Dep, Result, MsgT>> grown = new ArrayList<>(current);
+            while (grown.size() <= index) {
+                grown.add(new ComputationCell<>(
+                        parentNetwork, defaultValProducer, rowsBeginInitialized,
+                        formulaProvider, messageProcessorProducer, rowUpdateListener, values, domain, cellName));
+            }
+            if (cells.compareAndSet(current, List.copyOf(grown))) {
+                return grown.get(index);
             }
-            cellTable.put(event, target);
-            return target;
-        } finally {
-            cellsLock.writeLock().unlock();
         }
     }
 
+    //assigns cells to events known ahead of time - e.g. all those in the SerialFormulas the network was loaded from
+    void preassignCells(Collection<? extends Result> events) {
+        events.forEach(this::getCellForEvent);
+    }
+
     @Override
     public ComputationRow<Dep, Result, MsgT> getRow(Result event, ComputationRow<? super Result, ?, ?> requester) {
         return getCellForEvent(event).getRow(event, requester);
     }
 
+    @Override
+    public ComputationRow<Dep, Result, MsgT> lookupRow(Result event) {
+        return getCellForEvent(event).lookupRow(event);
+    }
+
     @Override
     public float get(Result event) {
         return getCellForEvent(event).get(event);
     }
 
+    //the event's row, or null if it has none yet - never creates one (nor assigns the event a cell)
+    ComputationCell<Dep, Result, MsgT>.Row findRow(Result event) {
+        ComputationCell<Dep, Result, MsgT> cell = cellTable.get(event);
+        return cell == null ? null : cell.findRow(event);
+    }
+
+    //the event's row's id into the group's value store, which valueAt reads - creating the row if need be
+    int rowId(Result event) {
+        return getCellForEvent(event).rowId(event);
+    }
+
     @Override
     public void passMessage(Result event, MsgT msg) {
         getCellForEvent(event).passMessage(event, msg);
@@ -110,20 +143,36 @@ public class ComputationCellGroup<Dep extends Dependency, Result extends Event,
         readCells().forEach(cell -> cell.passMessageToAll(msg));
     }
 
-    @Override
-    public void run() {
-        setPriority(Config.NETWORK_THREAD_PRIORITY);
-        setName("ComputationCellGroup: " + cellName);
-        readCells().forEach(Thread::start);
+    //cells don't own threads - this only hands work queued before the network's workers started to the pool.
+    //cells created afterwards submit their own work as it arrives
+    void start() {
+        readCells().forEach(ComputationCell::start);
     }
 
-    //mostly for debugging purposes
+    //mostly for debugging purposes. Indexed, so a cycle allocates nothing that a worker's wouldn't
     public void performCycle() {
-        readCells().forEach(ComputationCell::performCycle);
+        List<ComputationCell<Dep, Result, MsgT>> cells = readCells();
+        for (int i = 0; i < cells.size(); i++) {
+            cells.get(i).performCycle();
+        }
+    }
+
+    //values leave the group as probabilities, whatever domain they are stored in
+
+    float valueAt(int id) {
+        return domain.fromStored(values.get(id));
+    }
+
+    void forEachValue(BiConsumer<? super Result, Float> action) {
+        if (domain == ValueDomain.PROBABILITY) {
+            values.forEach(action);
+        } else {
+            values.forEach((event, stored) -> action.accept(event, domain.fromStored(stored)));
+        }
     }
 
-    Stream<Float> streamValues() {
-        return readCells().stream().flatMap(ComputationCell::streamValues);
+    String valueBinStatistics() {
+        return Util.binStatisticString(BINS_FOR_DISPLAY, this::valueAt, values.ids().boxed().toList());
     }
 
     Stream<Map.Entry<Result, ComputationCell<Dep, Result, MsgT>.Row>> streamRows() {
@@ -131,7 +180,7 @@ public class ComputationCellGroup<Dep extends Dependency, Result extends Event,
     }
 
     Stream<Result> streamKeys() {
-        return readCells().stream().flatMap(ComputationCell::streamKeys);
+        return values.ids().mapToObj(values::event);
     }
 
     public long numActive() {
@@ -140,8 +189,8 @@ public class ComputationCellGroup<Dep extends Dependency, Result extends Event,
 
     @Override
     public String toString() {
-        return "ComputationCellGroup[" + streamValues().count() + " values; " + numActive() + " active; "
-                + Util.binStatisticString(BINS_FOR_DISPLAY, this::get, streamKeys().toList()) +
+        return "ComputationCellGroup[" + values.size() + " values; " + numActive() + " active; "
+                + valueBinStatistics() +
         "]";
     }
 }
\ No newline at end of file
@@ -6,6 +6,8 @@ import core.codemodel.elements.Procedure;
 import core.codemodel.events.*;
 import core.dependencies.*;
 import core.formula.ErrorFormulaProvider;
+import core.formula.FloatResolver;
+import core.formula.Formula;
 import core.formula.FormulaProvider;
 import core.formula.TotalFormulaProvider;
 import serializable.SerialFormulas;
@@ -14,10 +16,19 @@ import spoon.reflect.declaration.CtElement;
 import util.Pair;
 import util.Util;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -27,7 +38,8 @@ import static util.Util.internalLog;
 
 interface ComputationRow<Dep extends Dependency, Result extends Event, MsgT> {
     float getVal();
-    void notifyDependeesUpdated();
+    //called by a dependee of this row whose value moved
+    void notifyDependeeUpdated(ComputationRow<?, ?, ?> dependee);
     void notifyNoLongerDependee(ComputationRow<? super Result, ?, ?> formerDependerRow);
     void passMessage(MsgT msg);
 }
@@ -35,10 +47,21 @@ interface ComputationRow<Dep extends Dependency, Result extends Event, MsgT> {
 interface RowProvider<Dep extends Dependency, Result extends Event, MsgT> {
     float get(Result event);
     ComputationRow<Dep, Result, MsgT> getRow(Result event, ComputationRow<? super Result, ?, ?> requester);
+    //like getRow, but without registering a depender - for callers that only read or message the row
+    ComputationRow<Dep, Result, MsgT> lookupRow(Result event);
     void passMessage(Result event, MsgT msg);
     void passMessageToAll(MsgT msg);
 }
 
+interface RowUpdateListener<Result extends Event> {
+    //called by the owning cell whenever a row's value moves by at least the freshness threshold, or is first computed
+    void rowUpdated(Result event, float val);
+
+    static <Result extends Event> RowUpdateListener<Result> none() {
+        return (ignoredEvent, ignoredVal) -> {};
+    }
+}
+
 public class ComputationNetwork extends Thread implements ExecutionSupervisor {
 
     private final ComputationCellGroup<None, Pi, BranchTaken> piComputationCells;
@@ -54,8 +77,25 @@ public class ComputationNetwork extends Thread implements ExecutionSupervisor {
     final boolean debugMode;
 
     final AtomicInteger[] assertionPassCount;
-    final AtomicInteger branchTakenCount = new AtomicInteger(0);
+    //a LongAdder rather than an AtomicInteger since every instrumented branch bumps this
+    final LongAdder branchTakenCount = new LongAdder();
+
+    //dense views of the rows instrumented code reports into, indexed by the ids the instrumentation passes to
+    //RuntimeDriver. These are resolved once at construction so the fast paths below never allocate or lock.
+    //Holes (ids not known at construction) are null and fall back to the event-keyed paths
+    private final ComputationRow<?, Pi, BranchTaken>[] branchRows;
+    private final Assertion[] assertions;
+    private final AssertionPass[] assertionPasses;
+
+    //line rows indexed by line number - a pass of an assertion is delivered to the lines in the assertion's row of
+    //the omega matrix, which leaves out lines whose omega is structurally zero. Lines whose omega is currently below
+    //ASSERTION_PASS_ROUTING_OMEGA_THRESHOLD are skipped at delivery time
+    private final ComputationRow<?, Line, AssertionPass>[] lineRows;
+    private final OmegaMatrix omegaMatrix;
+
 
+    //the groups of streamCellGroups, for loops that mustn't allocate
+    private final ComputationCellGroup<?, ?, ?>[] cellGroups;
 
     private Stream<ComputationCellGroup<? extends Dependency, ? extends Event, ?>> streamCellGroups() {
         return Stream.of(
@@ -71,25 +111,133 @@ public class ComputationNetwork extends Thread implements ExecutionSupervisor {
 
     private final FormulaProvider<Assertion, Assertion> assertionCorrectnessToFrequencyProvider;
 
-    private final Random randomness = new Random();
+    //current execution frequency of each assertion, indexed by assertion number. Written by the assertion cells
+    //through updateAssertionFrequency whenever a correctness row moves significantly, and read by executeAssertion,
+    //so executing an assertion is one array read and a random draw instead of a formula evaluation
+    private final float[] assertionFrequencies;
+    //the frequency formula of each known assertion, and the resolver they read correctness through - both made once,
+    //so keeping the table current allocates nothing
+    private final Formula<Assertion>[] assertionFrequencyFormulas;
+    private final FloatResolver<Assertion> correctnessResolver = this::get;
+    private static final VarHandle FREQUENCIES = MethodHandles.arrayElementVarHandle(float[].class);
+
+    private volatile AssertionSampler assertionSampler;
+
+    //every cell of the network runs as a task on this pool, so the number of threads the network takes from the
+    //application is NETWORK_WORKER_THREADS no matter how many rows the program produces. Async mode gives FIFO
+    //ordering for the submitted drain tasks, which are never joined. Workers are only created once tasks arrive,
+    //and tasks only arrive once run() has started the workers - before that, cells are driven by performCycle
+    private final ForkJoinPool workerPool = new ForkJoinPool(NETWORK_WORKER_THREADS, pool -> {
+        ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        worker.setPriority(NETWORK_THREAD_PRIORITY);
+        worker.setName("ComputationNetwork worker - " + worker.getPoolIndex());
+        return worker;
+    }, null, true);
+    private volatile boolean workersStarted = false;
+
+    //cells with rows that are queued or being processed - kept by the cells as their first row becomes active and their
+    //last inactive, so stability is one read, and rows changing state in a cell that stays busy never touch it. A row
+    //activated from outside the workers can briefly be missed while its cell settles, as it could be before its flag
+    //is set. Waiters in awaitStable are woken on the monitor whenever it drops to zero
+    private final AtomicInteger numActiveCells = new AtomicInteger(0);
+    private final Object stabilityMonitor = new Object();
+
+    public enum EvaluationMode {
+        //each cell drains its own dirty rows in parallel, in no particular order
+        WORKLIST,
+        //dirty rows from all cells are drained serially in topological order of the dependency graph's strongly
+        //connected components - see FormulaGraph
+        TOPOLOGICAL
+    }
+
+    private volatile EvaluationMode evaluationMode = NETWORK_EVALUATION_MODE;
+
+    public enum CellPartitioning {
+        //events are dealt to cells in whatever order they are first seen
+        FIRST_SEEN,
+        //known events are dealt to cells grouped by dependency locality, so an update wakes fewer cells - see
+        //CellPartitioner
+        LOCALITY
+    }
+
+    //state for TOPOLOGICAL evaluation: rows queued since the last drain, the graph snapshot they're ranked by, and
+    //whether a row has (re)bound its dependees since that snapshot was taken
+    private final Queue<ComputationCell<?, ?, ?>.Row> topologicalIncoming = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean topologicalDraining = new AtomicBoolean(false);
+    private FormulaGraph<ComputationRow<?, ?, ?>> dependencyGraph = null;
+    private volatile boolean dependencyGraphStale = true;
 
     private <Result extends Event> Function<Result, Float> precedentOrDefault(Optional<SerialResults> precedentResults, Float defaultVal) {
         return precedentResults.<Function<Result, Float>>map(serialResults -> ev -> serialResults.data().get(ev))
                 .orElse(ev -> defaultVal);
     }
 
+    private static <E extends Event> List<E> eventsOfType(Collection<? extends Event> events, Class<E> type) {
+        return events.stream().filter(type::isInstance).map(type::cast).distinct().toList();
+    }
+
     public ComputationNetwork(TotalFormulaProvider formulaProvider, Optional<SerialResults> precedentResults, Optional<ProgramAnalyzer> programAnalyzer) {
+        this(formulaProvider, precedentResults, programAnalyzer, Map.of());
+    }
+
+    /**
+     * @param branchWindowSizes per-branch overrides of BRANCH_MONITORING_WINDOW_SIZE - e.g. larger windows for
+     *                          branches that are hit often enough to estimate finer probabilities
+     */
+    public ComputationNetwork(TotalFormulaProvider formulaProvider, Optional<SerialResults> precedentResults, Optional<ProgramAnalyzer> programAnalyzer,
+                              Map<Pi, Integer> branchWindowSizes) {
+        this(formulaProvider, precedentResults, programAnalyzer, branchWindowSizes, CELL_PARTITIONING);
+    }
 
+    /**
+     * @param cellPartitioning how rows known at load time are assigned to cells
+     */
+    @SuppressWarnings("unchecked")
+    public ComputationNetwork(TotalFormulaProvider formulaProvider, Optional<SerialResults> precedentResults, Optional<ProgramAnalyzer> programAnalyzer,
+                              Map<Pi, Integer> branchWindowSizes, CellPartitioning cellPartitioning) {
+
+        Collection<Pi> knownBranches;
+        Collection<Line> knownLines;
+        Collection<Assertion> knownAssertions;
+        //omegas that may be nonzero - the entries of the omega matrix
+        Collection<Omega> knownOmegas;
+        //events whose rows are expected to exist - their cells are assigned as soon as the groups are created
+        Collection<Event> knownEvents;
+        //dependency edges between known events, for partitioning - only available when loaded from SerialFormulas
+        Function<Event, Collection<? extends Event>> knownDependees;
         if (programAnalyzer.isPresent()) {
             //this is a network created for debugging/testing - linked directly to an analyzer
             assertionPassCount = new AtomicInteger[] {};
             debugMode = true;
+            knownBranches = IntStream.range(0, programAnalyzer.get().numBranches()).mapToObj(Pi::new).toList();
+            knownLines = programAnalyzer.get().getAllLines();
+            knownAssertions = programAnalyzer.get().getAllAssertions();
+            knownOmegas = knownAssertions.stream()
+                    .flatMap(a -> programAnalyzer.get().getAssertionDependentLines(a).stream()
+                            .map(line -> new Omega(a, line)))
+                    .toList();
+            knownEvents = Stream.of(knownBranches, knownLines, knownAssertions)
+                    .<Event>flatMap(Collection::stream).toList();
+            knownDependees = ignored -> List.of();
         } else  {
             if (formulaProvider instanceof SerialFormulas sf) {
                 assertionPassCount = IntStream.range(0, sf.getAllAssertions().size())
                         .mapToObj(i -> new AtomicInteger(0))
                         .toArray(ignored -> new AtomicInteger[sf.getAllAssertions().size()]);
                 debugMode = false;
+                knownBranches = sf.getAllBranches();
+                knownLines = sf.getAllLines();
+                knownAssertions = sf.getAllAssertions();
+                knownOmegas = sf.data().entrySet().stream()
+                        .filter(entry -> entry.getKey() instanceof Omega && !structurallyZero(entry.getValue()))
+                        .map(entry -> (Omega) entry.getKey())
+                        .toList();
+                knownEvents = Stream.of(knownBranches, knownLines, sf.data().keySet())
+                        .<Event>flatMap(Collection::stream).toList();
+                knownDependees = event -> {
+                    Formula<? extends Dependency> formula = sf.data().get(event);
+                    return formula == null ? List.of() : formula.getDeps();
+                };
             } else {
                 throw new IllegalArgumentException(
                         "ComputationNetwork created in runtime mode (i.e. without ProgramAnalyzer) must have SerialFormuals");
@@ -101,44 +249,121 @@ public class ComputationNetwork extends Thread implements ExecutionSupervisor {
                 new ComputationCellGroup<>(this,
                         precedentOrDefault(precedentResults, PI_COLD_VALUE),
                         true, new ErrorFormulaProvider<>("there is no pi formula"),
-                        BranchMessageProcessor::new, "pi computation");
+                        pi -> new BranchMessageProcessor(pi,
+                                branchWindowSizes.getOrDefault(pi, BRANCH_MONITORING_WINDOW_SIZE)),
+                        RowUpdateListener.none(), "pi computation");
         phiComputationCells =
                 new ComputationCellGroup<>(this,
                         precedentOrDefault(precedentResults, PHI_COLD_VALUE),
                         false, formulaProvider.phiFormulaProvider(),
-                        NoopMessageProcessor::new, "phi computation");
+                        NoopMessageProcessor::new, RowUpdateListener.none(), "phi computation");
         betaComputationCells =
                 new ComputationCellGroup<>(this,
                         precedentOrDefault(precedentResults, BETA_COLD_VALUE),
                         false, formulaProvider.betaFormulaProvider(),
-                        NoopMessageProcessor::new, "beta computation");
+                        NoopMessageProcessor::new, RowUpdateListener.none(), "beta computation");
         etaComputationCells =
                 new ComputationCellGroup<>(this,
                         precedentOrDefault(precedentResults, ETA_COLD_VALUE),
                         false, formulaProvider.etaFormulaProvider(),
-                        NoopMessageProcessor::new, "eta computation");
+                        NoopMessageProcessor::new, RowUpdateListener.none(), "eta computation");
         alphaComputationCells =
                 new ComputationCellGroup<>(this,
                         precedentOrDefault(precedentResults, ALPHA_COLD_VALUE),
                         false, formulaProvider.alphaFormulaProvider(),
-                        NoopMessageProcessor::new, "alpha computation");
+                        NoopMessageProcessor::new, RowUpdateListener.none(), "alpha computation");
         omegaComputationCells =
                 new ComputationCellGroup<>(this,
                         precedentOrDefault(precedentResults, OMEGA_COLD_VALUE),
                         false, formulaProvider.omegaFormulaProvider(),
-                        NoopMessageProcessor::new, "omega computation");
+                        NoopMessageProcessor::new, RowUpdateListener.none(), "omega computation");
         lineComputationCells =
                 new ComputationCellGroup<>(this,
                         precedentOrDefault(precedentResults, LINE_CORRECTNESS_COLD_VALUE),
                         true, new ErrorFormulaProvider<>("there is no line formula"),
                         line -> new AssertionPassMessageProcessor(
-                                formulaProvider.lineUpdateFormulaProvider(), this, line), "line correctness computation");
+                                formulaProvider.lineUpdateFormulaProvider(), this, line),
+                        RowUpdateListener.none(), "line correctness computation");
         assertionComputationCells =
                 new ComputationCellGroup<>(this,
                         precedentOrDefault(precedentResults, ASSERTION_CORRECTNESS_COLD_VALUE),
                         false, formulaProvider.assertionFormulaProvider(),
-                        NoopMessageProcessor::new, "assertion correctness computation");
+                        NoopMessageProcessor::new, this::updateAssertionFrequency,
+                        ASSERTION_VALUE_DOMAIN, "assertion correctness computation");
+        cellGroups = streamCellGroups().toArray(ComputationCellGroup<?, ?, ?>[]::new);
         assertionCorrectnessToFrequencyProvider = formulaProvider.assertionCorrectnessToFrequencyProvider();
+
+        if (cellPartitioning == CellPartitioning.LOCALITY) {
+            knownEvents = CellPartitioner.order(knownEvents, knownDependees);
+        }
+        piComputationCells.preassignCells(eventsOfType(knownEvents, Pi.class));
+        phiComputationCells.preassignCells(eventsOfType(knownEvents, Phi.class));
+        betaComputationCells.preassignCells(eventsOfType(knownEvents, Beta.class));
+        etaComputationCells.preassignCells(eventsOfType(knownEvents, Eta.class));
+        alphaComputationCells.preassignCells(eventsOfType(knownEvents, Alpha.class));
+        omegaComputationCells.preassignCells(eventsOfType(knownEvents, Omega.class));
+        lineComputationCells.preassignCells(eventsOfType(knownEvents, Line.class));
+        assertionComputationCells.preassignCells(eventsOfType(knownEvents, Assertion.class));
+
+        branchRows = resolveRows(piComputationCells, knownBranches, Pi::num);
+        assertions = new Assertion[denseSize(knownAssertions, Assertion::num)];
+        knownAssertions.forEach(a -> assertions[a.num()] = a);
+        assertionPasses = Arrays.stream(assertions)
+                .map(a -> a == null? null: new AssertionPass(a))
+                .toArray(AssertionPass[]::new);
+        lineRows = resolveRows(lineComputationCells, knownLines, Line::num);
+        omegaMatrix = new OmegaMatrix(omegaComputationCells,
+                knownOmegas.stream()
+                        .filter(omega -> omega.assertion().num() < assertions.length
+                                && omega.line().num() < lineRows.length && lineRows[omega.line().num()] != null)
+                        .toList(),
+                assertions.length, lineRows.length);
+
+        //seed the frequency table from the cold (or precedent) correctness values - the assertion cells keep it
+        //current from here on
+        assertionFrequencies = new float[assertions.length];
+        @SuppressWarnings("unchecked")
+        Formula<Assertion>[] frequencyFormulas = Arrays.stream(assertions)
+                .map(a -> a == null ? null : assertionCorrectnessToFrequencyProvider.get(a))
+                .toArray(Formula[]::new);
+        assertionFrequencyFormulas = frequencyFormulas;
+        knownAssertions.forEach(a -> updateAssertionFrequency(a, get(a)));
+        assertionSampler = AssertionSampler.ofMode(ASSERTION_SAMPLING_MODE, assertions.length);
+    }
+
+    public void setSamplingMode(AssertionSampler.Mode mode) {
+        assertionSampler = AssertionSampler.ofMode(mode, assertions.length);
+    }
+
+    public int numAssertions() {
+        return assertions.length;
+    }
+
+    //must be chosen before the network is started - rows already queued under the old mode are still drained by it
+    public void setEvaluationMode(EvaluationMode mode) {
+        if (workersStarted) {
+            throw new IllegalStateException("Evaluation mode can't be changed while the network is running");
+        }
+        evaluationMode = mode;
+    }
+
+    //an omega is structurally zero if its formula reads nothing and folds to zero - e.g. the empty disjunction
+    //OmegaProvider builds when no flow from the line to the assertion exists. Omegas missing from the formulas
+    //altogether are zero too, and never get this far
+    private static boolean structurallyZero(Formula<? extends Dependency> formula) {
+        return formula.getDeps().isEmpty() && formula.evaluate(ignored -> 0f) == 0f;
+    }
+
+    private static <T> int denseSize(Collection<T> ts, ToIntFunction<T> index) {
+        return ts.stream().mapToInt(index).max().orElse(-1) + 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <Result extends Event, MsgT> ComputationRow<?, Result, MsgT>[] resolveRows(
+            RowProvider<?, Result, MsgT> cells, Collection<Result> events, ToIntFunction<Result> index) {
+        ComputationRow<?, Result, MsgT>[] rows = new ComputationRow[denseSize(events, index)];
+        events.forEach(event -> rows[index.applyAsInt(event)] = cells.lookupRow(event));
+        return rows;
     }
 
     private void warmup() {
@@ -195,31 +420,90 @@ public class ComputationNetwork extends Thread implements ExecutionSupervisor {
         return getCellGroup(event).get(event);
     }
 
+    private float computeAssertionFrequency(Assertion assertion) {
+        return assertionCorrectnessToFrequencyProvider.get(assertion).evaluate(correctnessResolver);
+    }
+
+    private void updateAssertionFrequency(Assertion assertion, float ignoredCorrectness) {
+        if (assertion.num() < assertionFrequencies.length && assertionFrequencyFormulas[assertion.num()] != null) {
+            FREQUENCIES.setOpaque(assertionFrequencies, assertion.num(),
+                    assertionFrequencyFormulas[assertion.num()].evaluate(correctnessResolver));
+        }
+    }
+
     @Override
     public boolean executeAssertion(Assertion assertion) {
-        float assertion_freq = assertionCorrectnessToFrequencyProvider.get(assertion).compute(this::get);
-        return randomness.nextFloat() <= assertion_freq;
+        if (assertion.num() < assertions.length && assertions[assertion.num()] != null) {
+            return executeAssertion(assertion.num());
+        }
+        return assertionSampler.sample(assertion.num(), computeAssertionFrequency(assertion));
     }
 
     @Override
     public void notifyAssertionPass(Assertion assertion) {
+        if (assertion.num() < assertions.length && assertions[assertion.num()] != null) {
+            notifyAssertionPass(assertion.num());
+            return;
+        }
+        //an assertion unknown at construction has no routes - every line gets the pass
         lineComputationCells.passMessageToAll(new AssertionPass(assertion));
-        if (assertionPassCount.length != 0) {
+        //pass counts only cover the assertions known at construction
+        if (assertion.num() < assertionPassCount.length) {
             assertionPassCount[assertion.num()].incrementAndGet();
         }
     }
 
     @Override
     public void notifyBranchTaken(Pi branch, boolean direction) {
-        piComputationCells.passMessage(branch, new BranchTaken(direction));
-        branchTakenCount.incrementAndGet();
+        piComputationCells.passMessage(branch, BranchTaken.of(direction));
+        branchTakenCount.increment();
+    }
+
+    @Override
+    public boolean executeAssertion(int assertion) {
+        if (assertion >= assertions.length || assertions[assertion] == null) {
+            return executeAssertion(new Assertion(assertion));
+        }
+        //opaque so the read can't be hoisted out of an instrumented loop, without paying for a volatile
+        return assertionSampler.sample(assertion, (float) FREQUENCIES.getOpaque(assertionFrequencies, assertion));
+    }
+
+    @Override
+    public void notifyAssertionPass(int assertion) {
+        if (assertion >= assertionPasses.length || assertionPasses[assertion] == null) {
+            notifyAssertionPass(new Assertion(assertion));
+            return;
+        }
+        AssertionPass pass = assertionPasses[assertion];
+        for (int k = omegaMatrix.rowStart(assertion); k < omegaMatrix.rowEnd(assertion); k++) {
+            if (omegaMatrix.rowValueAt(k) >= ASSERTION_PASS_ROUTING_OMEGA_THRESHOLD) {
+                lineRows[omegaMatrix.lineAt(k)].passMessage(pass);
+            }
+        }
+        if (assertion < assertionPassCount.length) {
+            assertionPassCount[assertion].incrementAndGet();
+        }
+    }
+
+    @Override
+    public void notifyBranchTaken(int branch, boolean direction) {
+        if (branch >= branchRows.length || branchRows[branch] == null) {
+            notifyBranchTaken(new Pi(branch), direction);
+            return;
+        }
+        branchRows[branch].passMessage(BranchTaken.of(direction));
+        branchTakenCount.increment();
     }
 
     @Override
     public void run() {
         setPriority(Config.NETWORK_THREAD_PRIORITY);
         setName("ComputationNetwork");
-        streamCellGroups().forEach(Thread::start);
+        workersStarted = true;
+        streamCellGroups().forEach(ComputationCellGroup::start);
+        if (!topologicalIncoming.isEmpty() && topologicalDraining.compareAndSet(false, true)) {
+            submitCellTask(this::drainTopologically);
+        }
         while (!isInterrupted()) {
             try {
                 Thread.sleep(2000);
@@ -228,40 +512,129 @@ public class ComputationNetwork extends Thread implements ExecutionSupervisor {
                 break;
             }
         }
-        streamCellGroups().forEach(Thread::interrupt);
+        workersStarted = false;
+        workerPool.shutdownNow();
+    }
+
+    void notifyCellActivated() {
+        numActiveCells.incrementAndGet();
+    }
+
+    void notifyCellDeactivated() {
+        if (numActiveCells.decrementAndGet() == 0) {
+            synchronized (stabilityMonitor) {
+                stabilityMonitor.notifyAll();
+            }
+        }
+    }
+
+    boolean workersStarted() {
+        return workersStarted;
+    }
+
+    void submitCellTask(Runnable task) {
+        try {
+            workerPool.execute(task);
+        } catch (RejectedExecutionException e) {
+            //the network is shutting down - instrumented code must never see that, so the work is just dropped
+        }
     }
 
-    //mostly for debugging purposes
+    //mostly for debugging purposes. In TOPOLOGICAL mode, a single cycle runs the network to stability
     public void performCycle() {
-        streamCellGroups().forEach(ComputationCellGroup::performCycle);
+        for (ComputationCellGroup<?, ?, ?> group : cellGroups) {
+            group.performCycle();
+        }
+        if (!topologicalIncoming.isEmpty() && topologicalDraining.compareAndSet(false, true)) {
+            drainTopologically();
+        }
+    }
+
+    boolean evaluatesTopologically() {
+        return evaluationMode == EvaluationMode.TOPOLOGICAL;
+    }
+
+    void notifyDependencyGraphChanged() {
+        dependencyGraphStale = true;
+    }
+
+    void scheduleTopologically(ComputationCell<?, ?, ?>.Row row) {
+        topologicalIncoming.add(row);
+        if (workersStarted && !topologicalDraining.get() && topologicalDraining.compareAndSet(false, true)) {
+            submitCellTask(this::drainTopologically);
+        }
+    }
+
+    //evaluates every queued row, and every row dirtied along the way, lowest rank first. A row of an acyclic part of
+    //the graph is only reached once all of its dependees have settled, so it is computed once; rows of a cyclic
+    //component keep re-queueing each other at the same rank until they converge, before anything downstream runs
+    private void drainTopologically() {
+        do {
+            if (dependencyGraphStale) {
+                dependencyGraphStale = false;
+                dependencyGraph = FormulaGraph.build(
+                        streamCellGroups().<ComputationRow<?, ?, ?>>flatMap(group -> group.streamRows().map(Map.Entry::getValue)).toList(),
+                        row -> ((ComputationCell<?, ?, ?>.Row) row).dependeeRows());
+            }
+            FormulaGraph<ComputationRow<?, ?, ?>> graph = dependencyGraph;
+            PriorityQueue<ComputationCell<?, ?, ?>.Row> ready = new PriorityQueue<>(Comparator.comparingInt(graph::rank));
+            for (ComputationCell<?, ?, ?>.Row row; (row = topologicalIncoming.poll()) != null; ) {
+                ready.add(row);
+            }
+            while (!ready.isEmpty()) {
+                ready.poll().process();
+                for (ComputationCell<?, ?, ?>.Row row; (row = topologicalIncoming.poll()) != null; ) {
+                    ready.add(row);
+                }
+            }
+            topologicalDraining.set(false);
+            //re-check after releasing, so a row queued in between can't be missed
+        } while (!topologicalIncoming.isEmpty() && topologicalDraining.compareAndSet(false, true));
+    }
+
+    //the assertion's omega for every line, indexed by line number - zero for lines it has no omega for
+    private float[] blameByLine(Assertion a) {
+        float[] blame = new float[lineRows.length];
+        for (int k = omegaMatrix.rowStart(a.num()); k < omegaMatrix.rowEnd(a.num()); k++) {
+            blame[omegaMatrix.lineAt(k)] = omegaMatrix.rowValueAt(k);
+        }
+        return blame;
+    }
+
+    private static float blameOf(float[] blame, Line line) {
+        return line.num() < blame.length ? blame[line.num()] : 0f;
     }
 
     public List<Pair<Pair<Procedure, Set<CtElement>>, Float>> topBlamedLines(Assertion a, int n, ProgramAnalyzer analyzer) {
+        float[] blame = blameByLine(a);
         return analyzer.getAllLines().stream()
-                .sorted(Comparator.comparingDouble(line -> -get(new Omega(a, line))))
+                .sorted(Comparator.comparingDouble(line -> -blameOf(blame, line)))
                 .limit(n)
-                .map(line -> new Pair<>(analyzer.lineIndexer.lookupAux(line).get(), get(new Omega(a, line))))
+                .map(line -> new Pair<>(analyzer.lineIndexer.lookupAux(line).get(), blameOf(blame, line)))
                 .toList();
     }
 
     public List<Pair<Pair<Procedure, Set<CtElement>>, Float>> getBlamedLines(Assertion a, ProgramAnalyzer analyzer) {
+        float[] blame = blameByLine(a);
         return analyzer.getAllLines().stream()
-                .sorted(Comparator.comparingDouble(line -> -get(new Omega(a, line))))
-                .filter(line -> get(new Omega(a, line)) > COMPUTATION_CELL_FRESH_VAL_TRESHOLD)
-                .map(line -> new Pair<>(analyzer.lineIndexer.lookupAux(line).get(), get(new Omega(a, line))))
+                .filter(line -> blameOf(blame, line) > COMPUTATION_CELL_FRESH_VAL_TRESHOLD)
+                .sorted(Comparator.comparingDouble(line -> -blameOf(blame, line)))
+                .map(line -> new Pair<>(analyzer.lineIndexer.lookupAux(line).get(), blameOf(blame, line)))
                 .toList();
     }
 
-    public long countBlamedLines(Assertion a, ProgramAnalyzer analyzer) {
-        return analyzer.getAllLines().stream()
-                .filter(line -> get(new Omega(a, line)) > COMPUTATION_CELL_FRESH_VAL_TRESHOLD)
-                .count();
+    public long countBlamedLines(Assertion a, ProgramAnalyzer ignoredAnalyzer) {
+        long count = 0;
+        for (int k = omegaMatrix.rowStart(a.num()); k < omegaMatrix.rowEnd(a.num()); k++) {
+            if (omegaMatrix.rowValueAt(k) > COMPUTATION_CELL_FRESH_VAL_TRESHOLD) {
+                count++;
+            }
+        }
+        return count;
     }
 
     public float getCoverageForLine(Line l) {
-        return assertionComputationCells.streamRows()
-                .map(entry -> get(new Omega(entry.getKey(), l)))
-                .reduce(0f, Float::max);
+        return omegaMatrix.columnMax(l.num());
     }
 
     public long numActive() {
@@ -269,16 +642,88 @@ public class ComputationNetwork extends Thread implements ExecutionSupervisor {
     }
 
     public boolean isStable() {
-        //could be made more performant by early termination
-        return numActive() == 0;
+        return numActiveCells.get() == 0;
+    }
+
+    /**
+     * Blocks until no row of the network is queued or being processed
+     * @param timeoutMillis how long to wait at most
+     * @return whether the network is stable - false if the wait timed out
+     */
+    public boolean awaitStable(long timeoutMillis) throws InterruptedException {
+        long deadline = deadlineAfter(timeoutMillis);
+        synchronized (stabilityMonitor) {
+            while (!isStable()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                stabilityMonitor.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Blocks until no row that the assertion's correctness depends on, directly or transitively, is queued or being
+     * processed - the assertion's value has converged, though other parts of the network may still be working.
+     * The assertion's dependee cone is walked once, and its rows then signal the wait as they go inactive
+     * @param timeoutMillis how long to wait at most
+     * @return whether the assertion is stable - false if the wait timed out
+     */
+    public boolean awaitStable(Assertion assertion, long timeoutMillis) throws InterruptedException {
+        ComputationCell<?, Assertion, ?>.Row root = assertionComputationCells.findRow(assertion);
+        if (root == null || isStable()) {
+            //an assertion without a row has nothing to converge
+            return true;
+        }
+        ConeWatch watch = new ConeWatch();
+        try {
+            watch.watchCones(List.of(root));
+            return watch.awaitInactive(deadlineAfter(timeoutMillis));
+        } finally {
+            watch.close();
+        }
+    }
+
+    //saturates, so Long.MAX_VALUE waits forever
+    private static long deadlineAfter(long timeoutMillis) {
+        long now = System.currentTimeMillis();
+        return timeoutMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeoutMillis;
+    }
+
+    /**
+     * How well rows are partitioned into cells, as of now
+     * @param numCrossCellEdges dependency edges whose two rows sit in different cells
+     * @param numLinkedCellPairs distinct (dependee cell, depender cell) pairs joined by a cross-cell edge - each is a
+     *                           cell that an update in another cell can wake
+     */
+    public record CellLocality(int numCells, long numEdges, long numCrossCellEdges, long numLinkedCellPairs) {}
+
+    public CellLocality cellLocality() {
+        Map<ComputationCell<?, ?, ?>, Integer> cellIds = new IdentityHashMap<>();
+        Set<Long> linkedCellPairs = new HashSet<>();
+        long numEdges = 0, numCrossCellEdges = 0;
+        for (ComputationCell<?, ?, ?>.Row row : streamCellGroups()
+                .<ComputationCell<?, ?, ?>.Row>flatMap(group -> group.streamRows().map(Map.Entry::getValue)).toList()) {
+            int to = cellIds.computeIfAbsent(row.cell(), ignored -> cellIds.size());
+            for (ComputationRow<?, ?, ?> dependee : row.dependeeRows()) {
+                int from = cellIds.computeIfAbsent(((ComputationCell<?, ?, ?>.Row) dependee).cell(), ignored -> cellIds.size());
+                numEdges++;
+                if (from != to) {
+                    numCrossCellEdges++;
+                    linkedCellPairs.add(((long) from << 32) | to);
+                }
+            }
+        }
+        return new CellLocality(cellIds.size(), numEdges, numCrossCellEdges, linkedCellPairs.size());
     }
 
     public SerialResults serializeResults() {
-        //we cast to hashmap because the underlying implementation of Collectors.toMap uses it and I want to ensure
-        //serialization goes right so SerialResults only accepts HashMaps
-        HashMap<Event, Float> data = (HashMap<Event, Float>) streamCellGroups()
-                .flatMap(ComputationCellGroup::streamRows)
-                .collect(Collectors.toMap(entry -> (Event) entry.getKey(), entry -> entry.getValue().getVal()));
+        //SerialResults only accepts HashMaps, to ensure serialization goes right. Each group's values are a
+        //sequential scan of its value store
+        HashMap<Event, Float> data = new HashMap<>();
+        streamCellGroups().forEach(group -> group.forEachValue(data::put));
         return new SerialResults(data);
     }
 
@@ -286,17 +731,17 @@ public class ComputationNetwork extends Thread implements ExecutionSupervisor {
     public String toString() {
         List<String> assertionCorrectness = IntStream.range(0, (int) assertionComputationCells.streamKeys().count())
                 .mapToObj(i -> "<" +
-                        (assertionPassCount.length == 0? "?": assertionPassCount[i].get())
+                        (i < assertionPassCount.length ? assertionPassCount[i].get() : "?")
                         + ", " + get(new Assertion(i)) + ">").toList();
         String repr = "Supervisor["
                 + numActive() + " active, "
-                + branchTakenCount.get() + " branches taken, "
+                + branchTakenCount.sum() + " branches taken, "
                 + assertionCorrectness.size() + " assertions: {";
         for (String s : assertionCorrectness) {
             repr = repr + s + ", ";
         }
         return repr + "}, line coverages: " +
                 Util.binStatisticString(BINS_FOR_DISPLAY, this::getCoverageForLine, lineComputationCells.streamKeys().toList()) + ", line correctnesses: " +
-                Util.binStatisticString(BINS_FOR_DISPLAY, this::get, lineComputationCells.streamKeys().toList()) + "]";
+                lineComputationCells.valueBinStatistics() + "]";
     }
 }
@@ -0,0 +1,72 @@
+package supervisor;
+
+import java.util.*;
+
+/*
+The active rows of one dependee cone - a row and everything it transitively depends on - for an awaitStable waiting
+on it. The cone is walked once, when the watch is taken: each row in it is told about the watch, and from then on
+reports its own activations and deactivations to it, so the waiter is signalled the moment the last active row of the
+cone goes inactive - nothing is polled or re-walked. A row that binds new dependees while watched extends the watch
+over their cones.
+
+A row sets its active flag before reading its watches, and a watch is added to a row before the row's flag is read,
+so a row changing state while the watch is being added is seen by at least one side. Recording an active row twice
+is harmless, and each row is added under the watch's lock, so a report the row makes about the change is applied after
+the watch read the flag
+ */
+final class ConeWatch {
+    private final Set<ComputationCell<?, ?, ?>.Row> watched = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<ComputationCell<?, ?, ?>.Row> activeRows = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    //watches the cones of the given rows - those already watched, and everything past them, are skipped
+    void watchCones(Collection<? extends ComputationRow<?, ?, ?>> roots) {
+        Deque<ComputationCell<?, ?, ?>.Row> frontier = new ArrayDeque<>();
+        roots.forEach(root -> frontier.push((ComputationCell<?, ?, ?>.Row) root));
+        while (!frontier.isEmpty()) {
+            ComputationCell<?, ?, ?>.Row row = frontier.pop();
+            synchronized (this) {
+                if (!watched.add(row)) {
+                    continue;
+                }
+                row.addWatch(this);
+                if (row.isActive()) {
+                    activeRows.add(row);
+                }
+            }
+            for (ComputationRow<?, ?, ?> dependee : row.dependeeRows()) {
+                frontier.push((ComputationCell<?, ?, ?>.Row) dependee);
+            }
+        }
+    }
+
+    synchronized void rowActivated(ComputationCell<?, ?, ?>.Row row) {
+        activeRows.add(row);
+    }
+
+    synchronized void rowDeactivated(ComputationCell<?, ?, ?>.Row row) {
+        if (activeRows.remove(row) && activeRows.isEmpty()) {
+            notifyAll();
+        }
+    }
+
+    //blocks until no watched row is active, or the deadline passes - returning which
+    synchronized boolean awaitInactive(long deadline) throws InterruptedException {
+        while (!activeRows.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    //stops every watched row reporting to this watch
+    void close() {
+        List<ComputationCell<?, ?, ?>.Row> rows;
+        synchronized (this) {
+            rows = List.copyOf(watched);
+        }
+        rows.forEach(row -> row.removeWatch(this));
+    }
+}
@@ -1,15 +1,59 @@
 package supervisor;
 
 public class Config {
-    //how many branches to remember into the past
+    //how many branches to remember into the past, unless overridden for a specific branch
     static final int BRANCH_MONITORING_WINDOW_SIZE = 10;
 
+    //largest window a branch may be given - windows cost one bit per remembered outcome
+    static final int BRANCH_MONITORING_MAX_WINDOW_SIZE = 1 << 16;
+
     //when to decide a value is fresh enough to be worth recomputing dependers
     static final float COMPUTATION_CELL_FRESH_VAL_TRESHOLD = 0.001f;
 
+    //an assertion pass is only delivered to lines whose omega for that assertion is at least this large - below it,
+    //the pass would move the line's correctness by less than the freshness threshold anyway
+    static final float ASSERTION_PASS_ROUTING_OMEGA_THRESHOLD = COMPUTATION_CELL_FRESH_VAL_TRESHOLD;
+
+    //whether rows lower their formulas into FormulaPrograms, rather than evaluating the formula trees directly
+    static final boolean COMPILE_FORMULAS = true;
+
+    //recomputes after which a row's compiled formula is specialized into a method handle tree - see FormulaProgram
+    static final int FORMULA_SPECIALIZATION_THRESHOLD = 64;
+
+    //programs longer than this stay interpreted: the handle trees nest one level per operand, and past a few hundred
+    //levels the JIT stops inlining them and they run slower than the interpreter
+    static final int FORMULA_SPECIALIZATION_MAX_OPS = 256;
+
+    //conjunctions and disjunctions with at least this many operands - assertion correctness over every line of the
+    //program - are kept as running products and updated one operand at a time. See IncrementalProduct
+    static final int INCREMENTAL_PRODUCT_MIN_OPERANDS = 32;
+
+    //operand updates after which an incremental product is recomputed from scratch, to bound the drift that
+    //subtracting factors' logs out of it accumulates. Products with fewer operands than this are recomputed once per
+    //numOperands updates
+    static final int INCREMENTAL_PRODUCT_REFRESH_INTERVAL = 1024;
+
+    //how assertion correctness values are stored. LOG_PROBABILITY keeps conjunctions over large programs from
+    //underflowing, and makes the freshness threshold relative, so even tiny correctnesses keep updating frequencies.
+    //Line correctness stays in probabilities - assertions read it as a dependee. See ValueDomain
+    static final ValueDomain ASSERTION_VALUE_DOMAIN = ValueDomain.PROBABILITY;
+
     //max size for a given computation cell
     static final int COMPUTATION_CELL_GROUP_MAX_CELL_SIZE = 100;
 
+    //how events known at load time are assigned to cells - see ComputationNetwork.CellPartitioning
+    static final ComputationNetwork.CellPartitioning CELL_PARTITIONING = ComputationNetwork.CellPartitioning.LOCALITY;
+
+    //label propagation rounds CellPartitioner runs before settling for the communities it has
+    static final int CELL_PARTITION_ROUNDS = 20;
+
+    //largest community CellPartitioner grows - about one cell's worth of rows from each of the eight cell groups
+    static final int CELL_PARTITION_MAX_COMMUNITY_SIZE = 8 * COMPUTATION_CELL_GROUP_MAX_CELL_SIZE;
+
+    //whether cell groups keep row values and flags in direct buffers rather than heap arrays - for networks large
+    //enough that their rows would otherwise dominate the instrumented program's heap and GC pauses. See RowValueStore
+    static final boolean OFF_HEAP_ROW_STORAGE = false;
+
     //cold values for various computation cells
     static final float PI_COLD_VALUE = 0.5f;
     static final float PHI_COLD_VALUE = 0.0f;
@@ -30,4 +74,23 @@ public class Config {
     static final int WARMUP_ROUNDS = 5;
 
     static final int NETWORK_THREAD_PRIORITY = Thread.MIN_PRIORITY;
+
+    //core budget for the computation network - the size of the worker pool all computation cells run on
+    static final int NETWORK_WORKER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    //how the network orders row evaluation - see ComputationNetwork.EvaluationMode
+    static final ComputationNetwork.EvaluationMode NETWORK_EVALUATION_MODE = ComputationNetwork.EvaluationMode.WORKLIST;
+
+    //rows a cell processes before handing its worker back to the pool, so busy cells can't starve the rest
+    static final int CELL_TASK_BATCH_SIZE = 256;
+
+    //time a cell's drain task runs before handing its worker back to the pool. Also the unit of work cells balance by:
+    //a cell gets one more concurrent drain task per slice of work its backlog is estimated to hold
+    static final long CELL_TASK_TIME_SLICE_NANOS = 1_000_000;
+
+    //how executeAssertion turns an assertion's frequency into a decision - see AssertionSampler
+    static final AssertionSampler.Mode ASSERTION_SAMPLING_MODE = AssertionSampler.Mode.THREAD_LOCAL_RANDOM;
+
+    //seed for AssertionSampler.Mode.SEEDED
+    static final long ASSERTION_SAMPLING_SEED = 0L;
 }
@@ -13,4 +13,14 @@ public interface ExecutionSupervisor {
     void notifyAssertionPass(Assertion assertion);
 
     void notifyBranchTaken(Pi branch, boolean direction);
+
+    /*
+    The same three calls, keyed directly by the ids the instrumentation passes in. Implementations should resolve
+    these without allocating - they run on every instrumented if and assert
+     */
+    boolean executeAssertion(int assertion);
+
+    void notifyAssertionPass(int assertion);
+
+    void notifyBranchTaken(int branch, boolean direction);
 }
\ No newline at end of file
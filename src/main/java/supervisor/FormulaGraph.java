@@ -0,0 +1,131 @@
+package supervisor;
+
+import java.util.*;
+import java.util.function.Function;
+
+/*
+A snapshot of the dependency graph between rows, condensed into strongly connected components. Nodes get dense ids,
+edges (dependee -> depender) are kept in compressed sparse row form, and each node gets the topological rank of its
+component: every dependee of a node sits in a component of lower rank, unless the two share a component. Evaluating
+rows in rank order therefore computes each acyclic row once, after all of its inputs, and only the components formed
+by recursion (eta through recursive calls, phi through loops) ever need more than one evaluation
+ */
+class FormulaGraph<N> {
+    private final Map<N, Integer> ids;
+    private final int[] edgeOffsets;
+    private final int[] edgeTargets;
+    private final int[] ranks;
+
+    private FormulaGraph(Map<N, Integer> ids, int[] edgeOffsets, int[] edgeTargets) {
+        this.ids = ids;
+        this.edgeOffsets = edgeOffsets;
+        this.edgeTargets = edgeTargets;
+        this.ranks = new int[ids.size()];
+        rankComponents();
+    }
+
+    static <N> FormulaGraph<N> build(Collection<N> nodes, Function<N, Collection<? extends N>> dependees) {
+        Map<N, Integer> ids = new HashMap<>();
+        List<N> byId = new ArrayList<>();
+        for (N node : nodes) {
+            if (ids.putIfAbsent(node, byId.size()) == null) {
+                byId.add(node);
+            }
+        }
+
+        //count out-edges (dependee -> depender) per node, then fill them in - dependees outside the snapshot are
+        //rows created since it was taken, and are simply left out
+        int[] offsets = new int[ids.size() + 1];
+        for (N node : byId) {
+            for (N dependee : dependees.apply(node)) {
+                Integer from = ids.get(dependee);
+                if (from != null) {
+                    offsets[from + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] targets = new int[offsets[ids.size()]];
+        int[] fill = Arrays.copyOf(offsets, ids.size());
+        for (int to = 0; to < byId.size(); to++) {
+            for (N dependee : dependees.apply(byId.get(to))) {
+                Integer from = ids.get(dependee);
+                if (from != null) {
+                    targets[fill[from]++] = to;
+                }
+            }
+        }
+        return new FormulaGraph<>(ids, offsets, targets);
+    }
+
+    //iterative Tarjan - the graph can be far deeper than the thread stack. Components complete dependers-first,
+    //so ranks are handed out in reverse completion order
+    private void rankComponents() {
+        int n = ranks.length;
+        int[] index = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int[] callStack = new int[n];
+        int[] edgeCursor = new int[n];
+        Arrays.fill(index, -1);
+        int[] componentOf = new int[n];
+        int nextIndex = 0, stackTop = 0, numComponents = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            int callTop = 0;
+            callStack[callTop++] = root;
+            index[root] = lowLink[root] = nextIndex++;
+            edgeCursor[root] = edgeOffsets[root];
+            stack[stackTop++] = root;
+            onStack[root] = true;
+
+            while (callTop > 0) {
+                int v = callStack[callTop - 1];
+                if (edgeCursor[v] < edgeOffsets[v + 1]) {
+                    int w = edgeTargets[edgeCursor[v]++];
+                    if (index[w] == -1) {
+                        index[w] = lowLink[w] = nextIndex++;
+                        edgeCursor[w] = edgeOffsets[w];
+                        stack[stackTop++] = w;
+                        onStack[w] = true;
+                        callStack[callTop++] = w;
+                    } else if (onStack[w]) {
+                        lowLink[v] = Math.min(lowLink[v], index[w]);
+                    }
+                    continue;
+                }
+                callTop--;
+                if (callTop > 0) {
+                    int parent = callStack[callTop - 1];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                }
+                if (lowLink[v] == index[v]) {
+                    int w;
+                    do {
+                        w = stack[--stackTop];
+                        onStack[w] = false;
+                        componentOf[w] = numComponents;
+                    } while (w != v);
+                    numComponents++;
+                }
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            ranks[i] = numComponents - 1 - componentOf[i];
+        }
+    }
+
+    //topological rank of the node's component, or Integer.MAX_VALUE for nodes not in this snapshot - so they are
+    //evaluated after everything that is
+    int rank(N node) {
+        Integer id = ids.get(node);
+        return id == null ? Integer.MAX_VALUE : ranks[id];
+    }
+}
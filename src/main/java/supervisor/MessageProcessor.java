@@ -3,14 +3,21 @@ package supervisor;
 import core.codemodel.events.*;
 import core.dependencies.None;
 import core.dependencies.OmegaOrLine;
+import core.formula.FloatResolver;
+import core.formula.Formula;
 import core.formula.FormulaProvider;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import static supervisor.Config.BRANCH_MONITORING_WINDOW_SIZE;
+import static supervisor.Config.BRANCH_MONITORING_MAX_WINDOW_SIZE;
 
 interface MessageProcessorProducer<Result extends Event, MsgT> {
     MessageProcessor<MsgT> produce(Result event);
@@ -34,44 +41,89 @@ class NoopMessageProcessor implements MessageProcessor<None> {
     }
 }
 
-record BranchTaken(boolean direction) {}
+record BranchTaken(boolean direction) {
+    private static final BranchTaken TAKEN = new BranchTaken(true);
+    private static final BranchTaken NOT_TAKEN = new BranchTaken(false);
 
+    //branch messages carry no identity, so share the two instances instead of allocating per branch
+    static BranchTaken of(boolean direction) {
+        return direction? TAKEN: NOT_TAKEN;
+    }
+}
+
+/*
+Tracks the fraction of the last windowSize outcomes of a branch that were true. Outcomes live one bit each in a ring
+of longs: a report claims the next slot from an atomic cursor and flips that slot's bit with an atomic bitwise op,
+which also tells it what bit it evicted, so the true count can be kept exact with a single atomic add. Threads
+reporting the same branch never block each other, and nothing is allocated per report
+ */
 class BranchMessageProcessor implements MessageProcessor<BranchTaken> {
-    private int currWindowSize = 0;
-    private float currWindowTrueCount = 0.0f;
-    private final Queue<Boolean> window = new LinkedList<>();
+    private static final VarHandle WINDOW = MethodHandles.arrayElementVarHandle(long[].class);
 
-    BranchMessageProcessor(Pi ignoredPi) {/* noop: branch prediction behavior is same for all branches */}
+    private final int windowSize;
+    private final long[] window;
+    private final AtomicLong cursor = new AtomicLong(0);
+    private final AtomicInteger trueCount = new AtomicInteger(0);
 
-    @Override
-    public synchronized void passMessage(BranchTaken msg) {
-        if (currWindowSize == BRANCH_MONITORING_WINDOW_SIZE) {
-            if (window.remove()) {
-                currWindowTrueCount--;
-            }
-        } else {
-            currWindowSize++;
+    BranchMessageProcessor(Pi pi, int windowSize) {
+        if (windowSize < 1 || windowSize > BRANCH_MONITORING_MAX_WINDOW_SIZE) {
+            throw new IllegalArgumentException("Bad monitoring window size for " + pi + ": " + windowSize);
         }
-        window.add(msg.direction());
-        if (msg.direction()) {
-            currWindowTrueCount++;
+        this.windowSize = windowSize;
+        this.window = new long[(windowSize + Long.SIZE - 1) / Long.SIZE];
+    }
+
+    @Override
+    public void passMessage(BranchTaken msg) {
+        long slot = cursor.getAndIncrement() % windowSize;
+        int word = (int) (slot / Long.SIZE);
+        long bit = 1L << (slot % Long.SIZE);
+        long oldWord = msg.direction()?
+                (long) WINDOW.getAndBitwiseOr(window, word, bit):
+                (long) WINDOW.getAndBitwiseAnd(window, word, ~bit);
+        boolean evicted = (oldWord & bit) != 0;
+        if (evicted != msg.direction()) {
+            trueCount.addAndGet(msg.direction()? 1: -1);
         }
     }
 
     @Override
     public float processMessages(float oldVal) {
-        return currWindowSize > 0? currWindowTrueCount / currWindowSize: oldVal;
+        long filled = Math.min(cursor.get(), windowSize);
+        return filled > 0? (float) trueCount.get() / filled: oldVal;
     }
 }
 
 record AssertionPass(Assertion assertion) {}
 
 class AssertionPassMessageProcessor implements MessageProcessor<AssertionPass> {
-    private final Queue<Assertion> assertionPasses = new ConcurrentLinkedQueue<>();
+    //passes are coalesced into a pending count per assertion rather than queued one by one, so memory is bounded by
+    //the number of distinct assertions and a cycle's work doesn't grow with the pass rate
+    private final Map<Assertion, PendingPasses> pendingPasses = new ConcurrentHashMap<>();
+    //the same entries in an array, so a cycle walks them without an iterator. Appended under the processor's lock
+    private volatile PendingPasses[] pendingList = new PendingPasses[0];
+    private final AtomicBoolean passesPending = new AtomicBoolean(false);
     private final FormulaProvider<OmegaOrLine, LineAssertionPair> formulaProvider;
     private final ComputationNetwork parentNetwork;
     private final Line line;
 
+    //the update being applied, for resolver - only the thread processing the line's row applies updates
+    private final FloatResolver<OmegaOrLine> resolver = this::resolve;
+    private float lineVal;
+    private int numPasses;
+
+    //one assertion's passes through this line, with the line's update formula for the assertion - looked up the
+    //first time a pass is applied, and reused from then on
+    private static final class PendingPasses {
+        private final Assertion assertion;
+        private final AtomicInteger count = new AtomicInteger(0);
+        private Formula<OmegaOrLine> update;
+
+        private PendingPasses(Assertion assertion) {
+            this.assertion = assertion;
+        }
+    }
+
     AssertionPassMessageProcessor(FormulaProvider<OmegaOrLine, LineAssertionPair> formulaProvider,
                                   ComputationNetwork parentNetwork,
                                   Line line) {
@@ -82,16 +134,53 @@ class AssertionPassMessageProcessor implements MessageProcessor<AssertionPass> {
 
     @Override
     public void passMessage(@NotNull AssertionPass msg) {
-        assertionPasses.add(msg.assertion());
+        PendingPasses pending = pendingPasses.get(msg.assertion());
+        if (pending == null) {
+            pending = pendingPasses.computeIfAbsent(msg.assertion(), this::addPending);
+        }
+        pending.count.incrementAndGet();
+        //set after the increment, so a pass is never left behind a cleared flag
+        if (!passesPending.get()) {
+            passesPending.set(true);
+        }
+    }
+
+    //called once per assertion, by computeIfAbsent
+    private synchronized PendingPasses addPending(Assertion assertion) {
+        PendingPasses pending = new PendingPasses(assertion);
+        PendingPasses[] grown = Arrays.copyOf(pendingList, pendingList.length + 1);
+        grown[grown.length - 1] = pending;
+        pendingList = grown;
+        return pending;
     }
 
     @Override
     public float processMessages(float oldVal) {
-        while (!assertionPasses.isEmpty()) {
-            oldVal = formulaProvider
-                    .get(new LineAssertionPair(line, assertionPasses.remove()))
-                    .compute(parentNetwork::get);
+        if (!passesPending.getAndSet(false)) {
+            return oldVal;
+        }
+        for (PendingPasses pending : pendingList) {
+            int k = pending.count.getAndSet(0);
+            if (k == 0) {
+                continue;
+            }
+            if (pending.update == null) {
+                pending.update = formulaProvider.get(new LineAssertionPair(line, pending.assertion));
+            }
+            //the update is line ∨ omega, so k passes of one assertion compose into a single update whose omega is
+            //1-(1-omega)^k - i.e. 1-(1-line)(1-omega)^k in closed form
+            lineVal = oldVal;
+            numPasses = k;
+            oldVal = pending.update.evaluate(resolver);
         }
         return oldVal;
     }
-}
\ No newline at end of file
+
+    private float resolve(OmegaOrLine dep) {
+        return switch (dep) {
+            case Line ignored -> lineVal;
+            case Omega omega -> 1f - (float) Math.pow(1f - parentNetwork.get(omega), numPasses);
+            default -> parentNetwork.get(dep);
+        };
+    }
+}
@@ -0,0 +1,125 @@
+package supervisor;
+
+import core.codemodel.events.Omega;
+
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/*
+The omegas of a network as a sparse assertions × lines matrix, with an index both ways: compressed rows give the
+omegas of one assertion (blame ranking, routing passes of that assertion to lines), compressed columns the omegas of
+one line (its coverage across assertions). Either is a scan over a few int arrays - no Omega is allocated and no row
+looked up per entry.
+
+The structure is fixed when the network is built, from the omegas that may be nonzero - those in its formulas that
+aren't structurally zero, or the analyzer's lines for each assertion - and every other omega is zero for good.
+Entries hold the omegas' ids into their group's value store rather than copies of the values, so a read always sees
+the current value
+ */
+final class OmegaMatrix {
+    private final ComputationCellGroup<?, Omega, ?> omegas;
+
+    //entries of assertion a are [rowStarts[a], rowStarts[a + 1]), in increasing line order
+    private final int[] rowStarts;
+    private final int[] rowLines;
+    private final int[] rowIds;
+
+    //entries of line l are [colStarts[l], colStarts[l + 1]), in increasing assertion order
+    private final int[] colStarts;
+    private final int[] colAssertions;
+    private final int[] colIds;
+
+    OmegaMatrix(ComputationCellGroup<?, Omega, ?> omegas, List<Omega> entries, int numAssertions, int numLines) {
+        this.omegas = omegas;
+        int n = entries.size();
+        rowStarts = new int[numAssertions + 1];
+        colStarts = new int[numLines + 1];
+        for (Omega omega : entries) {
+            rowStarts[omega.assertion().num() + 1]++;
+            colStarts[omega.line().num() + 1]++;
+        }
+        for (int a = 0; a < numAssertions; a++) {
+            rowStarts[a + 1] += rowStarts[a];
+        }
+        for (int l = 0; l < numLines; l++) {
+            colStarts[l + 1] += colStarts[l];
+        }
+
+        int[] ids = entries.stream().mapToInt(omegas::rowId).toArray();
+        rowLines = new int[n];
+        rowIds = new int[n];
+        colAssertions = new int[n];
+        colIds = new int[n];
+        //a counting sort each way - filling the rows line by line keeps each row in line order, and vice versa
+        int[] order = sortedBy(entries, o -> o.line().num(), numLines);
+        int[] rowFill = rowStarts.clone();
+        for (int i : order) {
+            int k = rowFill[entries.get(i).assertion().num()]++;
+            rowLines[k] = entries.get(i).line().num();
+            rowIds[k] = ids[i];
+        }
+        order = sortedBy(entries, o -> o.assertion().num(), numAssertions);
+        int[] colFill = colStarts.clone();
+        for (int i : order) {
+            int k = colFill[entries.get(i).line().num()]++;
+            colAssertions[k] = entries.get(i).assertion().num();
+            colIds[k] = ids[i];
+        }
+    }
+
+    private static int[] sortedBy(List<Omega> entries, ToIntFunction<Omega> key, int numKeys) {
+        int[] starts = new int[numKeys + 1];
+        entries.forEach(omega -> starts[key.applyAsInt(omega) + 1]++);
+        for (int i = 0; i < numKeys; i++) {
+            starts[i + 1] += starts[i];
+        }
+        int[] order = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            order[starts[key.applyAsInt(entries.get(i))]++] = i;
+        }
+        return order;
+    }
+
+    //assertions and lines the matrix wasn't built with have empty rows and columns
+
+    int rowStart(int assertion) {
+        return assertion < rowStarts.length - 1 ? rowStarts[assertion] : 0;
+    }
+
+    int rowEnd(int assertion) {
+        return assertion < rowStarts.length - 1 ? rowStarts[assertion + 1] : 0;
+    }
+
+    int lineAt(int rowEntry) {
+        return rowLines[rowEntry];
+    }
+
+    float rowValueAt(int rowEntry) {
+        return omegas.valueAt(rowIds[rowEntry]);
+    }
+
+    int colStart(int line) {
+        return line < colStarts.length - 1 ? colStarts[line] : 0;
+    }
+
+    int colEnd(int line) {
+        return line < colStarts.length - 1 ? colStarts[line + 1] : 0;
+    }
+
+    int assertionAt(int colEntry) {
+        return colAssertions[colEntry];
+    }
+
+    float colValueAt(int colEntry) {
+        return omegas.valueAt(colIds[colEntry]);
+    }
+
+    //the largest omega of the line over all assertions - zero if it has none
+    float columnMax(int line) {
+        float max = 0f;
+        for (int k = colStart(line); k < colEnd(line); k++) {
+            max = Math.max(max, colValueAt(k));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,194 @@
+package supervisor;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+/*
+The values and state flags of all rows of one ComputationCellGroup, stored struct-of-arrays: each row is given a dense
+id when it is created, and its value and flags live at that index of paged arrays (with its event in a parallel page).
+Scans over the group - serialization, statistics - are sequential passes over a few contiguous arrays
+instead of walks over scattered row objects.
+
+Pages never move once allocated, so a row's slot is stable; only the (small) page directory is replaced as the store
+grows. Values are written with release and read with acquire semantics - what the volatile row field gave before -
+and flags are updated atomically.
+
+Two backends, picked by Config.OFF_HEAP_ROW_STORAGE:
+    - on heap, each page is a float[] and an int[]
+    - off heap, each page is one direct ByteBuffer holding the page's values followed by its flags, so the GC only
+      ever sees one small buffer object per PAGE_SIZE rows, however large the network grows. The buffers' memory is
+      released when the store is collected, and counts against -XX:MaxDirectMemorySize
+Events stay on the heap in either case - they are objects
+ */
+abstract class RowValueStore<Result> {
+    static final int PAGE_BITS = 10;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    static <Result> RowValueStore<Result> create(boolean offHeap) {
+        return offHeap ? new OffHeap<>() : new OnHeap<>();
+    }
+
+    private volatile Object[][] eventPages = new Object[0][];
+    //ids below size are fully initialized - published after the slot is written
+    private volatile int size = 0;
+
+    synchronized int allocate(Result event, float initialVal, int initialFlags) {
+        int id = size;
+        int page = id >>> PAGE_BITS;
+        if (page == eventPages.length) {
+            addPage(page);
+            Object[][] events = Arrays.copyOf(eventPages, page + 1);
+            events[page] = new Object[PAGE_SIZE];
+            eventPages = events;
+        }
+        set(id, initialVal);
+        orFlags(id, initialFlags);
+        eventPages[page][id & PAGE_MASK] = event;
+        size = id + 1;
+        return id;
+    }
+
+    //makes room for the ids of one more page - only called under the allocation lock
+    abstract void addPage(int page);
+
+    abstract float get(int id);
+
+    abstract void set(int id, float val);
+
+    abstract int flags(int id);
+
+    //atomically sets the given flag bits, returning the flags as they were
+    abstract int orFlags(int id, int bits);
+
+    //atomically clears every flag bit not in mask, returning the flags as they were
+    abstract int andFlags(int id, int mask);
+
+    abstract boolean compareAndSetFlags(int id, int expected, int flags);
+
+    @SuppressWarnings("unchecked")
+    Result event(int id) {
+        return (Result) eventPages[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    int size() {
+        return size;
+    }
+
+    IntStream ids() {
+        return IntStream.range(0, size);
+    }
+
+    void forEach(BiConsumer<? super Result, Float> action) {
+        int n = size;
+        for (int id = 0; id < n; id++) {
+            action.accept(event(id), get(id));
+        }
+    }
+
+    private static final class OnHeap<Result> extends RowValueStore<Result> {
+        private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(float[].class);
+        private static final VarHandle FLAGS = MethodHandles.arrayElementVarHandle(int[].class);
+
+        private volatile float[][] valuePages = new float[0][];
+        private volatile int[][] flagPages = new int[0][];
+
+        @Override
+        void addPage(int page) {
+            float[][] values = Arrays.copyOf(valuePages, page + 1);
+            values[page] = new float[PAGE_SIZE];
+            int[][] flags = Arrays.copyOf(flagPages, page + 1);
+            flags[page] = new int[PAGE_SIZE];
+            valuePages = values;
+            flagPages = flags;
+        }
+
+        @Override
+        float get(int id) {
+            return (float) VALUES.getAcquire(valuePages[id >>> PAGE_BITS], id & PAGE_MASK);
+        }
+
+        @Override
+        void set(int id, float val) {
+            VALUES.setRelease(valuePages[id >>> PAGE_BITS], id & PAGE_MASK, val);
+        }
+
+        @Override
+        int flags(int id) {
+            return (int) FLAGS.getVolatile(flagPages[id >>> PAGE_BITS], id & PAGE_MASK);
+        }
+
+        @Override
+        int orFlags(int id, int bits) {
+            return (int) FLAGS.getAndBitwiseOr(flagPages[id >>> PAGE_BITS], id & PAGE_MASK, bits);
+        }
+
+        @Override
+        int andFlags(int id, int mask) {
+            return (int) FLAGS.getAndBitwiseAnd(flagPages[id >>> PAGE_BITS], id & PAGE_MASK, mask);
+        }
+
+        @Override
+        boolean compareAndSetFlags(int id, int expected, int flags) {
+            return FLAGS.compareAndSet(flagPages[id >>> PAGE_BITS], id & PAGE_MASK, expected, flags);
+        }
+    }
+
+    private static final class OffHeap<Result> extends RowValueStore<Result> {
+        //views of a direct buffer support atomic access as long as every access is aligned - these all are, since
+        //each page starts aligned and floats and ints are both 4 bytes
+        private static final VarHandle VALUES =
+                MethodHandles.byteBufferViewVarHandle(float[].class, ByteOrder.nativeOrder());
+        private static final VarHandle FLAGS =
+                MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+        private static final int FLAGS_OFFSET = PAGE_SIZE * Float.BYTES;
+
+        private volatile ByteBuffer[] pages = new ByteBuffer[0];
+
+        @Override
+        void addPage(int page) {
+            ByteBuffer[] newPages = Arrays.copyOf(pages, page + 1);
+            newPages[page] = ByteBuffer.allocateDirect(PAGE_SIZE * (Float.BYTES + Integer.BYTES))
+                    .order(ByteOrder.nativeOrder());
+            pages = newPages;
+        }
+
+        @Override
+        float get(int id) {
+            return (float) VALUES.getAcquire(pages[id >>> PAGE_BITS], (id & PAGE_MASK) * Float.BYTES);
+        }
+
+        @Override
+        void set(int id, float val) {
+            VALUES.setRelease(pages[id >>> PAGE_BITS], (id & PAGE_MASK) * Float.BYTES, val);
+        }
+
+        @Override
+        int flags(int id) {
+            return (int) FLAGS.getVolatile(pages[id >>> PAGE_BITS], FLAGS_OFFSET + (id & PAGE_MASK) * Integer.BYTES);
+        }
+
+        @Override
+        int orFlags(int id, int bits) {
+            return (int) FLAGS.getAndBitwiseOr(
+                    pages[id >>> PAGE_BITS], FLAGS_OFFSET + (id & PAGE_MASK) * Integer.BYTES, bits);
+        }
+
+        @Override
+        int andFlags(int id, int mask) {
+            return (int) FLAGS.getAndBitwiseAnd(
+                    pages[id >>> PAGE_BITS], FLAGS_OFFSET + (id & PAGE_MASK) * Integer.BYTES, mask);
+        }
+
+        @Override
+        boolean compareAndSetFlags(int id, int expected, int flags) {
+            return FLAGS.compareAndSet(
+                    pages[id >>> PAGE_BITS], FLAGS_OFFSET + (id & PAGE_MASK) * Integer.BYTES, expected, flags);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package supervisor;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+A cell's worklist: a bounded multi-producer multi-consumer ring, with its slots allocated up front, so queueing a row
+costs two CASes and no allocation. Each slot carries a sequence number saying which lap of the ring may write or read
+it next, so producers and consumers only contend on the ends they move.
+
+A row sits in its cell's worklist at most once - its QUEUED flag keeps it out until it is polled - so a ring with a
+slot per row the cell can hold never fills. Should it fill anyway, rows spill into an unbounded queue rather than
+being dropped.
+
+The size is the distance between the ends, which move before a slot is written and after it is read - so it counts a
+row from before it can be polled until after it is, and is never negative
+ */
+final class RowWorklist<T> {
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(0);
+    private final AtomicLong tail = new AtomicLong(0);
+
+    private final Queue<T> overflow = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numOverflowed = new AtomicInteger(0);
+
+    RowWorklist(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    void add(T item) {
+        long pos = tail.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long lag = sequences.get(i) - pos;
+            if (lag == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[i] = item;
+                    sequences.set(i, pos + 1);
+                    return;
+                }
+                pos = tail.get();
+            } else if (lag < 0) {
+                //the slot still holds an item from the previous lap - the ring is full
+                numOverflowed.incrementAndGet();
+                overflow.add(item);
+                return;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    //the oldest item, or null if there is none - or if the oldest is still being written
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long pos = head.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long lag = sequences.get(i) - (pos + 1);
+            if (lag == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    T item = (T) slots[i];
+                    slots[i] = null;
+                    sequences.set(i, pos + mask + 1);
+                    return item;
+                }
+                pos = head.get();
+            } else if (lag < 0) {
+                break;
+            } else {
+                pos = head.get();
+            }
+        }
+        if (numOverflowed.get() > 0) {
+            T item = overflow.poll();
+            if (item != null) {
+                numOverflowed.decrementAndGet();
+                return item;
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        long polled = head.get();
+        return (int) (tail.get() - polled) + numOverflowed.get();
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+}
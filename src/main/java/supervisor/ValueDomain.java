@@ -0,0 +1,41 @@
+package supervisor;
+
+/*
+How a cell group keeps its rows' values in its RowValueStore. Values leave the group - through get, serialization and
+update listeners - as probabilities either way; only the stored form differs.
+
+In LOG_PROBABILITY, a row stores the natural log of its value. Assertion correctness is a conjunction over every line
+of the program, and routinely gets too small for a float (or small enough to be pushed around as denormals) - in the
+log domain it stays a modest negative number, and an incremental product hands its log straight over, without ever
+forming the probability. The freshness threshold then applies to the log, so a row notifies on relative rather than
+absolute changes - a correctness of 1e-25 that halves is still news. Rows that other rows depend on have to stay in
+PROBABILITY, since dependers read stored values as they are
+ */
+enum ValueDomain {
+    PROBABILITY {
+        @Override
+        float toStored(float probability) {
+            return probability;
+        }
+
+        @Override
+        float fromStored(float stored) {
+            return stored;
+        }
+    },
+    LOG_PROBABILITY {
+        @Override
+        float toStored(float probability) {
+            return (float) Math.log(probability);
+        }
+
+        @Override
+        float fromStored(float stored) {
+            return (float) Math.exp(stored);
+        }
+    };
+
+    abstract float toStored(float probability);
+
+    abstract float fromStored(float stored);
+}